@@ -0,0 +1,234 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.swing.Timer;
+
+/**
+ * Saves the note open in the editor in the background while the user types.
+ *
+ * Document changes only mark the editor dirty. Every notes.autosave.millis (default 2000) a timer on
+ * the EDT captures the editor once and queues a single write on the persistence thread, so any
+ * number of keystrokes inside one interval coalesce into one write. At most one autosave write is
+ * outstanding: while the disk is still busy with the previous one, ticks are skipped and edits keep
+ * coalescing in the editor instead of piling up in the writer queue.
+ *
+ * Explicit saves go through the same path. Writes run in order on the persistence thread, and each
+ * one starts from the version the previous one produced, so the editor never conflicts with itself.
+ * When a write conflicts with a change made elsewhere, autosave pauses with the editor untouched and
+ * the next explicit save is based on the stored version, replacing that change.
+ *
+ * The bytes queued but not yet written and the duration of the last write are reported as the
+ * autosave.pendingBytes and autosave.lastFlushMillis gauges.
+ *
+ * All methods except the metric getters must be called on the EDT.
+ */
+class Autosaver {
+    /** The editor contents at one moment. */
+    static class Draft {
+        final String title;
+        final String content;
+        final String category;
+
+        Draft(String title, String content, String category) {
+            this.title = title;
+            this.content = content;
+            this.category = category;
+        }
+
+        boolean isComplete() {
+            return !title.isEmpty() && !content.isEmpty();
+        }
+
+        long bytes() {
+            return title.getBytes(StandardCharsets.UTF_8).length + content.getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+
+    private final PersistenceService persistence;
+    private final NoteStore noteStore;
+    private final Supplier<Draft> editor;
+    private final Consumer<Note> onSaved;
+    private final Consumer<Throwable> onFailed;
+    private final Consumer<String> onStatus;
+    private final Timer timer;
+
+    private String noteId;
+    private String owner;
+    // The version the next write for noteId is based on; advanced by each write on the persistence thread.
+    private AtomicLong baseVersion;
+    private boolean enabled = true;
+    private boolean dirty;
+    private boolean suppressed;
+    // Set when a write for the current note failed, so a conflict is not retried on every tick.
+    private boolean paused;
+    private int autosavesInFlight;
+
+    private volatile long pendingBytes;
+    private volatile long lastFlushMillis = -1;
+
+    Autosaver(PersistenceService persistence, NoteStore noteStore, Supplier<Draft> editor,
+              Consumer<Note> onSaved, Consumer<Throwable> onFailed, Consumer<String> onStatus) {
+        this.persistence = persistence;
+        this.noteStore = noteStore;
+        this.editor = editor;
+        this.onSaved = onSaved;
+        this.onFailed = onFailed;
+        this.onStatus = onStatus;
+        this.timer = new Timer(Integer.getInteger("notes.autosave.millis", 2000), e -> tick());
+        timer.start();
+    }
+
+    /**
+     * Switches the editor to another note (null for a new, unsaved one). Unsaved edits to the
+     * previous note are flushed first; fill then loads the editor without marking it dirty.
+     */
+    void edit(Note note, Runnable fill) {
+        if (dirty && enabled && !paused && noteId != null) {
+            Draft draft = editor.get();
+            if (draft.isComplete()) {
+                flush(draft, false);
+            }
+        }
+        noteId = note == null ? null : note.id;
+        owner = note == null ? null : note.userEmail;
+        paused = false;
+        baseVersion = note == null ? null : new AtomicLong(note.version);
+        suppressed = true;
+        try {
+            fill.run();
+        } finally {
+            suppressed = false;
+        }
+        dirty = false;
+    }
+
+    String editingId() {
+        return noteId;
+    }
+
+    /** Whether the editor has changes no write has picked up yet. */
+    boolean isDirty() {
+        return dirty;
+    }
+
+    /** Called for every editor change. */
+    void changed() {
+        if (!suppressed) {
+            dirty = true;
+        }
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        updateStatus();
+    }
+
+    /** Saves the draft to the note being edited now, after any autosave already queued. */
+    CompletableFuture<Note> save(Draft draft) {
+        paused = false;
+        return flush(draft, false);
+    }
+
+    long pendingBytes() {
+        return pendingBytes;
+    }
+
+    /** How long the last write took on the persistence thread, or -1 before the first one. */
+    long lastFlushMillis() {
+        return lastFlushMillis;
+    }
+
+    void stop() {
+        timer.stop();
+    }
+
+    private void tick() {
+        if (!enabled || paused || !dirty || noteId == null) {
+            return;
+        }
+        if (autosavesInFlight > 0) {
+            // The disk has not caught up yet; let the edits coalesce until it has.
+            onStatus.accept("Autosave: waiting for disk, " + formatBytes(pendingBytes) + " pending");
+            return;
+        }
+        Draft draft = editor.get();
+        if (!draft.isComplete()) {
+            return;
+        }
+        flush(draft, true);
+    }
+
+    private CompletableFuture<Note> flush(Draft draft, boolean autosave) {
+        dirty = false;
+        if (autosave) {
+            autosavesInFlight++;
+        }
+        String id = noteId;
+        String email = owner;
+        AtomicLong version = baseVersion;
+        long bytes = draft.bytes();
+        addPending(bytes);
+        CompletableFuture<Note> write = persistence.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                Note saved = noteStore.update(email, id, version.get(), draft.title, draft.content, draft.category);
+                if (saved != null) {
+                    version.set(saved.version);
+                }
+                return saved;
+            } finally {
+                lastFlushMillis = (System.nanoTime() - start) / 1_000_000;
+                addPending(-bytes);
+            }
+        });
+        PersistenceService.onEdt(write, saved -> {
+            if (autosave) {
+                autosavesInFlight--;
+            }
+            onSaved.accept(saved);
+            updateStatus();
+        }, error -> {
+            if (autosave) {
+                autosavesInFlight--;
+            }
+            if (id.equals(noteId)) {
+                paused = true;
+                if (error instanceof ConcurrentModificationException && version == baseVersion) {
+                    // Keep the user's text, but base the next save on what is stored now, so saving
+                    // again replaces the other change instead of conflicting with it forever.
+                    Note latest = noteStore.get(email, id);
+                    if (latest != null) {
+                        baseVersion = new AtomicLong(latest.version);
+                    }
+                }
+            }
+            updateStatus();
+            onFailed.accept(error);
+        });
+        updateStatus();
+        return write;
+    }
+
+    private synchronized void addPending(long bytes) {
+        pendingBytes += bytes;
+    }
+
+    private void updateStatus() {
+        if (!enabled) {
+            onStatus.accept("Autosave off");
+        } else if (paused) {
+            onStatus.accept("Autosave paused until the note is saved or reopened");
+        } else if (lastFlushMillis < 0) {
+            onStatus.accept("Autosave on");
+        } else {
+            onStatus.accept("Autosave: " + formatBytes(pendingBytes) + " pending, last flush " + lastFlushMillis + " ms");
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        return bytes < 1024 ? bytes + " B" : String.format("%.1f KB", bytes / 1024.0);
+    }
+}
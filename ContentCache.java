@@ -0,0 +1,47 @@
+import java.util.LinkedHashMap;
+
+/**
+ * Least-recently-used cache of note content decoded from the snapshot, bounded by an approximate byte
+ * budget (notes.content.cacheBytes, default 8 MB). Evicted content stays softly reachable from its note
+ * until the collector needs the memory, after which it is decoded again from the mapped snapshot.
+ * The bytes held are reported as the content.cacheBytes gauge.
+ */
+class ContentCache {
+    static final ContentCache SHARED = new ContentCache(Long.getLong("notes.content.cacheBytes", 8L << 20));
+
+    private final long budget;
+    private final LinkedHashMap<Note, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long used;
+
+    ContentCache(long budget) {
+        this.budget = budget;
+    }
+
+    /** Marks the note's content as recently used, adding it if absent. */
+    synchronized void touch(Note note, String content) {
+        if (entries.get(note) != null) {
+            return;
+        }
+        entries.put(note, content);
+        used += sizeOf(content);
+        while (used > budget && !entries.isEmpty()) {
+            Note eldest = entries.keySet().iterator().next();
+            used -= sizeOf(entries.remove(eldest));
+        }
+    }
+
+    synchronized void remove(Note note) {
+        String removed = entries.remove(note);
+        if (removed != null) {
+            used -= sizeOf(removed);
+        }
+    }
+
+    synchronized long usedBytes() {
+        return used;
+    }
+
+    private static long sizeOf(String content) {
+        return 2L * content.length();
+    }
+}
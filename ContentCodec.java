@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of note content, optionally with a preset dictionary trained on the notes.
+ *
+ * Notes are compressed one by one, so each can be inflated on its own when it is viewed, but a single
+ * note is often too short to repeat much of itself. The dictionary supplies what notes have in
+ * common: Deflate starts every note as if the dictionary had come just before it. Each snapshot
+ * trains its own dictionary from a sample of the notes it holds and stores it in its header.
+ *
+ * Compressed content is a four-byte raw length followed by a raw Deflate stream. Content shorter than
+ * notes.compress.minBytes (default 64), or that would not shrink by a tenth, is not compressed.
+ * notes.compress.level (default 6) sets the Deflate level; 0 turns compression off.
+ */
+final class ContentCodec {
+    static final int MIN_BYTES = Integer.getInteger("notes.compress.minBytes", 64);
+    static final int LEVEL = Integer.getInteger("notes.compress.level", 6);
+    static final int DICTIONARY_BYTES = Math.min(32 * 1024, Integer.getInteger("notes.compress.dictionaryBytes", 32 * 1024));
+    static final int SAMPLE_BYTES = Integer.getInteger("notes.compress.sampleBytes", 1 << 20);
+    /** Without a dictionary, for content compressed outside any snapshot. */
+    static final ContentCodec PLAIN = new ContentCodec(new byte[0]);
+
+    // Dictionary training: sequences of GRAM bytes are counted, and stretches of SEGMENT bytes picked.
+    private static final int GRAM = 8;
+    private static final int SEGMENT = 64;
+    private static final int HASH_BITS = 18;
+
+    // Deflater and Inflater hold native buffers; one of each per thread is reset between notes.
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(LEVEL, true));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final byte[] dictionary;
+
+    ContentCodec(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    byte[] dictionary() {
+        return dictionary;
+    }
+
+    /** The compressed form of the content, or null if compressing it is not worth it. */
+    byte[] compress(byte[] raw) {
+        if (LEVEL == 0 || raw.length < MIN_BYTES) {
+            return null;
+        }
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        if (dictionary.length > 0) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] packed = new byte[4 + raw.length - raw.length / 10];
+        packed[0] = (byte) (raw.length >>> 24);
+        packed[1] = (byte) (raw.length >>> 16);
+        packed[2] = (byte) (raw.length >>> 8);
+        packed[3] = (byte) raw.length;
+        int length = 4;
+        while (!deflater.finished()) {
+            if (length == packed.length) {
+                return null;
+            }
+            length += deflater.deflate(packed, length, packed.length - length);
+        }
+        return Arrays.copyOf(packed, length);
+    }
+
+    String decompress(byte[] packed) {
+        int rawLength = (packed[0] & 0xFF) << 24 | (packed[1] & 0xFF) << 16 | (packed[2] & 0xFF) << 8 | packed[3] & 0xFF;
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        if (dictionary.length > 0) {
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(packed, 4, packed.length - 4);
+        byte[] raw = new byte[rawLength];
+        try {
+            int length = 0;
+            while (length < rawLength) {
+                int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("content ends after " + length + " of " + rawLength + " bytes");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new IOException("Corrupt note content: " + e.getMessage(), e));
+        }
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds a dictionary of up to capacity bytes from sample contents. Every GRAM-byte sequence is
+     * counted once per sample it occurs in, so only what recurs across notes scores; repeats within
+     * one note Deflate finds by itself. Then the SEGMENT-byte stretches of the samples with the
+     * highest total score are picked greedily, discounting sequences an earlier pick already
+     * covers, in the manner of zstd's dictionary trainer. The best stretches go last, where
+     * Deflate reaches them with the shortest distances.
+     */
+    static byte[] train(List<byte[]> samples, int capacity) {
+        int[] frequency = new int[1 << HASH_BITS];
+        int[] lastSample = new int[1 << HASH_BITS];
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int i = 0; i + GRAM <= sample.length; i++) {
+                int hash = hash(sample, i);
+                if (lastSample[hash] != s + 1) {
+                    lastSample[hash] = s + 1;
+                    frequency[hash]++;
+                }
+            }
+        }
+
+        PriorityQueue<long[]> candidates = new PriorityQueue<>((a, b) -> Long.compare(b[0], a[0]));
+        for (int s = 0; s < samples.size(); s++) {
+            for (int start = 0; start + GRAM <= samples.get(s).length; start += SEGMENT / 2) {
+                long score = score(samples.get(s), start, frequency);
+                if (score > 0) {
+                    candidates.add(new long[] {score, s, start});
+                }
+            }
+        }
+
+        List<byte[]> picked = new ArrayList<>();
+        int size = 0;
+        while (size < capacity && !candidates.isEmpty()) {
+            long[] candidate = candidates.poll();
+            byte[] sample = samples.get((int) candidate[1]);
+            int start = (int) candidate[2];
+            long score = score(sample, start, frequency);
+            if (score == 0) {
+                continue;
+            }
+            if (!candidates.isEmpty() && score < candidates.peek()[0]) {
+                // Earlier picks covered part of it; requeue at its current worth.
+                candidate[0] = score;
+                candidates.add(candidate);
+                continue;
+            }
+            int end = Math.min(sample.length, start + SEGMENT);
+            for (int i = start; i + GRAM <= end; i++) {
+                frequency[hash(sample, i)] = 0;
+            }
+            picked.add(Arrays.copyOfRange(sample, start, Math.min(end, start + capacity - size)));
+            size += picked.get(picked.size() - 1).length;
+        }
+
+        byte[] dictionary = new byte[size];
+        int position = 0;
+        for (int i = picked.size() - 1; i >= 0; i--) {
+            System.arraycopy(picked.get(i), 0, dictionary, position, picked.get(i).length);
+            position += picked.get(i).length;
+        }
+        return dictionary;
+    }
+
+    // Sequences seen in a single sample add nothing over plain Deflate.
+    private static long score(byte[] sample, int start, int[] frequency) {
+        long score = 0;
+        int end = Math.min(sample.length, start + SEGMENT);
+        for (int i = start; i + GRAM <= end; i++) {
+            int count = frequency[hash(sample, i)];
+            if (count > 1) {
+                score += count;
+            }
+        }
+        return score;
+    }
+
+    private static int hash(byte[] bytes, int offset) {
+        long gram = 0;
+        for (int i = 0; i < GRAM; i++) {
+            gram = gram << 8 | (bytes[offset + i] & 0xFF);
+        }
+        return (int) ((gram * 0x9E3779B97F4A7C15L) >>> (64 - HASH_BITS));
+    }
+}
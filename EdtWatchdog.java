@@ -0,0 +1,71 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+
+/**
+ * Detects stalls of the event dispatch thread.
+ *
+ * A daemon thread posts a heartbeat to the EDT every notes.metrics.edtProbeMillis (default 100), one
+ * at a time, and the ui.edt.latency timer records how long each waited to run. A wait longer than
+ * notes.metrics.stallMillis (default 250) counts in ui.edt.stalls. While a heartbeat is overdue the
+ * EDT's stack is captured once into the ui.edt.lastStall text, so the metrics show what blocked it.
+ */
+final class EdtWatchdog {
+    private static final Metrics.Timer LATENCY = Metrics.timer("ui.edt.latency");
+    private static final Metrics.Counter STALLS = Metrics.counter("ui.edt.stalls");
+    private static final int STACK_DEPTH = 20;
+
+    private final long stallNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("notes.metrics.stallMillis", 250));
+    private final ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "edt-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Runnable heartbeat = this::heartbeat;
+
+    private volatile Thread edt;
+    // When the pending heartbeat was posted, or 0 when none is pending.
+    private volatile long postedAt;
+    private boolean stackCaptured;
+
+    private EdtWatchdog() {
+    }
+
+    static void start() {
+        EdtWatchdog watchdog = new EdtWatchdog();
+        long probeMillis = Long.getLong("notes.metrics.edtProbeMillis", 100);
+        watchdog.prober.scheduleWithFixedDelay(watchdog::probe, probeMillis, probeMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // On the prober thread.
+    private void probe() {
+        long posted = postedAt;
+        long now = System.nanoTime();
+        if (posted == 0) {
+            stackCaptured = false;
+            postedAt = now;
+            SwingUtilities.invokeLater(heartbeat);
+        } else if (!stackCaptured && now - posted > stallNanos && edt != null) {
+            stackCaptured = true;
+            StringBuilder stack = new StringBuilder();
+            StackTraceElement[] frames = edt.getStackTrace();
+            for (int i = 0; i < Math.min(frames.length, STACK_DEPTH); i++) {
+                stack.append("    at ").append(frames[i]).append('\n');
+            }
+            Metrics.text("ui.edt.lastStall", "blocked over " + TimeUnit.NANOSECONDS.toMillis(now - posted)
+                    + " ms at " + java.time.Instant.now() + "\n" + stack);
+        }
+    }
+
+    // On the EDT.
+    private void heartbeat() {
+        edt = Thread.currentThread();
+        long waited = System.nanoTime() - postedAt;
+        LATENCY.record(waited);
+        if (waited > stallNanos) {
+            STALLS.increment();
+        }
+        postedAt = 0;
+    }
+}
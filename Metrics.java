@@ -0,0 +1,294 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+/**
+ * Process-wide counters, gauges and latency histograms for storage, search, login and the UI.
+ *
+ * Timers record into log-linear histograms in the style of HdrHistogram: values below 64 ns get a
+ * bucket each, above that every power of two is split into 32 buckets, so percentiles are within
+ * about 3% across the whole range. The buckets are one fixed AtomicLongArray, so recording is a
+ * handful of atomic updates and never allocates. Metrics are created on first use and live as long
+ * as the process; callers keep them in static finals so the hot path skips the name lookup.
+ *
+ * {@link #startReporting} publishes everything as attributes of the notes:type=Metrics MBean, and
+ * rewrites notes.metrics.file (default metrics.txt; empty turns it off) every
+ * notes.metrics.seconds (default 60).
+ */
+final class Metrics {
+    private static final Map<String, Timer> TIMERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentSkipListMap<>();
+    private static final Map<String, String> TEXTS = new ConcurrentSkipListMap<>();
+    private static final long STARTED = System.currentTimeMillis();
+    private static boolean reporting;
+
+    private Metrics() {
+    }
+
+    static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, n -> new Timer());
+    }
+
+    static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /** Reports the supplier's current value under the name, replacing any earlier gauge of that name. */
+    static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    /** Records a piece of text, such as the stack of the last stall, to show alongside the numbers. */
+    static void text(String name, String value) {
+        TEXTS.put(name, value);
+    }
+
+    /** Registers the MBean and starts the dump thread; later calls do nothing. */
+    static synchronized void startReporting() {
+        if (reporting) {
+            return;
+        }
+        reporting = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName("notes:type=Metrics"));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        String path = System.getProperty("notes.metrics.file", "metrics.txt");
+        if (path.isEmpty()) {
+            return;
+        }
+        File file = new File(path);
+        long seconds = Long.getLong("notes.metrics.seconds", 60);
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleWithFixedDelay(() -> {
+            try {
+                write(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                write(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+    }
+
+    /** Every metric as text, one per line. */
+    static String dump() {
+        StringBuilder out = new StringBuilder();
+        out.append("# ").append(Instant.now()).append(", up ")
+                .append((System.currentTimeMillis() - STARTED) / 1000).append(" s\n");
+        TIMERS.forEach((name, timer) -> out.append(String.format(Locale.ROOT,
+                "%-28s count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms%n", name, timer.count(),
+                timer.meanMillis(), timer.percentileMillis(0.50), timer.percentileMillis(0.90),
+                timer.percentileMillis(0.99), timer.maxMillis())));
+        COUNTERS.forEach((name, counter) -> out.append(String.format(Locale.ROOT, "%-28s %d%n", name, counter.get())));
+        GAUGES.forEach((name, gauge) -> out.append(String.format(Locale.ROOT, "%-28s %d%n", name, gauge.getAsLong())));
+        TEXTS.forEach((name, text) -> out.append(name).append(":\n").append(text).append('\n'));
+        return out.toString();
+    }
+
+    private static void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), dump().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        void increment() {
+            count.increment();
+        }
+
+        long get() {
+            return count.sum();
+        }
+    }
+
+    /** A latency histogram in nanoseconds. */
+    static final class Timer {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int LINEAR = 2 * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(index(Long.MAX_VALUE) + 1);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets.incrementAndGet(index(value));
+            count.increment();
+            total.add(value);
+            long seen = max.get();
+            while (value > seen && !max.compareAndSet(seen, value)) {
+                seen = max.get();
+            }
+        }
+
+        /** Records the time since start, a {@link System#nanoTime} reading. */
+        void recordSince(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        double meanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : total.sum() / 1e6 / n;
+        }
+
+        double maxMillis() {
+            return max.get() / 1e6;
+        }
+
+        /** The value at or below which the fraction p of recordings fall, to the bucket's precision. */
+        double percentileMillis(double p) {
+            long recorded = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                recorded += buckets.get(i);
+            }
+            if (recorded == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p * recorded));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(highestInBucket(i), max.get()) / 1e6;
+                }
+            }
+            return maxMillis();
+        }
+
+        private static int index(long value) {
+            if (value < LINEAR) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+        }
+
+        private static long highestInBucket(int index) {
+            if (index < LINEAR) {
+                return index;
+            }
+            int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+            long lowest = (long) ((index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+    }
+
+    /**
+     * Exposes every metric as a read-only attribute: a timer named t as t.count, t.meanMillis,
+     * t.p50Millis, t.p90Millis, t.p99Millis and t.maxMillis; counters, gauges and texts under their names.
+     */
+    private static class Bean implements DynamicMBean {
+        private static final String[] TIMER_FIELDS = {"count", "meanMillis", "p50Millis", "p90Millis", "p99Millis", "maxMillis"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            if (COUNTERS.containsKey(attribute)) {
+                return COUNTERS.get(attribute).get();
+            }
+            if (GAUGES.containsKey(attribute)) {
+                return GAUGES.get(attribute).getAsLong();
+            }
+            if (TEXTS.containsKey(attribute)) {
+                return TEXTS.get(attribute);
+            }
+            int dot = attribute.lastIndexOf('.');
+            Timer timer = dot < 0 ? null : TIMERS.get(attribute.substring(0, dot));
+            if (timer != null) {
+                switch (attribute.substring(dot + 1)) {
+                    case "count":
+                        return timer.count();
+                    case "meanMillis":
+                        return timer.meanMillis();
+                    case "p50Millis":
+                        return timer.percentileMillis(0.50);
+                    case "p90Millis":
+                        return timer.percentileMillis(0.90);
+                    case "p99Millis":
+                        return timer.percentileMillis(0.99);
+                    case "maxMillis":
+                        return timer.maxMillis();
+                    default:
+                        break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String name : attributes) {
+                try {
+                    list.add(new Attribute(name, getAttribute(name)));
+                } catch (AttributeNotFoundException e) {
+                    // Left out, as the interface asks.
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        // Built on every call, so metrics created after registration show up too.
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : TIMERS.keySet()) {
+                for (String field : TIMER_FIELDS) {
+                    attributes.add(attribute(name + "." + field, field.equals("count") ? "long" : "double"));
+                }
+            }
+            COUNTERS.keySet().forEach(name -> attributes.add(attribute(name, "long")));
+            GAUGES.keySet().forEach(name -> attributes.add(attribute(name, "long")));
+            TEXTS.keySet().forEach(name -> attributes.add(attribute(name, String.class.getName())));
+            return new MBeanInfo(Metrics.class.getName(), "Note application metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        private static MBeanAttributeInfo attribute(String name, String type) {
+            return new MBeanAttributeInfo(name, type, name, true, false, false);
+        }
+    }
+}
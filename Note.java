@@ -0,0 +1,150 @@
+import java.io.Serializable;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+class Note implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final int TITLE = 1;
+    static final int CONTENT = 2;
+    static final int CATEGORY = 4;
+    // Resident content this long or longer is kept deflated; see pack().
+    static final int PACK_MIN_CHARS = Integer.getInteger("notes.compress.heapMinChars", 1024);
+
+    String id;
+    String title;
+    String category;
+    String userEmail;
+    // Bumped on every update; a save based on an older version is rejected.
+    long version;
+
+    // Resident content; null while the content is only referenced in the snapshot or packed.
+    private String content;
+    // The content deflated by pack(), while it is neither resident nor in a snapshot.
+    private transient byte[] packedContent;
+    private transient NoteSnapshot contentSnapshot;
+    private transient int contentIndex;
+    private transient SoftReference<String> contentRef;
+
+    public Note(String id, String title, String content, String category, String userEmail) {
+        this.id = id;
+        this.title = title;
+        this.content = content;
+        this.category = category;
+        this.userEmail = userEmail;
+    }
+
+    /** A note whose content is decoded from the snapshot on first use. */
+    static Note lazy(String id, String title, String category, String userEmail, NoteSnapshot snapshot, int index) {
+        Note note = new Note(id, title, null, category, userEmail);
+        note.contentSnapshot = snapshot;
+        note.contentIndex = index;
+        return note;
+    }
+
+    synchronized String content() {
+        if (content != null) {
+            return content;
+        }
+        String cached = contentRef == null ? null : contentRef.get();
+        if (cached == null) {
+            cached = unpack();
+            contentRef = new SoftReference<>(cached);
+        }
+        ContentCache.SHARED.touch(this, cached);
+        return cached;
+    }
+
+    /**
+     * Keeps long resident content deflated on the heap, once it is indexed; it is inflated again on
+     * demand like content in a snapshot. The value never changes, so readers cannot tell.
+     */
+    synchronized void pack() {
+        if (content != null && content.length() >= PACK_MIN_CHARS) {
+            byte[] packed = ContentCodec.PLAIN.compress(content.getBytes(StandardCharsets.UTF_8));
+            if (packed != null) {
+                contentRef = new SoftReference<>(content);
+                content = null;
+                packedContent = packed;
+            }
+        }
+    }
+
+    /**
+     * Drops resident content once it is safely in a snapshot; it is read back from there on demand.
+     * The value never changes, so readers cannot tell.
+     */
+    synchronized void release(NoteSnapshot snapshot, int index) {
+        if (content != null || packedContent != null) {
+            if (content != null) {
+                contentRef = new SoftReference<>(content);
+            }
+            content = null;
+            packedContent = null;
+            contentSnapshot = snapshot;
+            contentIndex = index;
+        }
+    }
+
+    /** The content without entering it into the content cache, for one-pass scans such as export. */
+    synchronized String readContent() {
+        if (content != null) {
+            return content;
+        }
+        String cached = contentRef == null ? null : contentRef.get();
+        return cached != null ? cached : unpack();
+    }
+
+    private String unpack() {
+        return packedContent != null ? ContentCodec.PLAIN.decompress(packedContent) : contentSnapshot.readContent(contentIndex);
+    }
+
+    /**
+     * Which editable fields differ from the given values, as a mask of TITLE, CONTENT and CATEGORY.
+     * Zero means saving them would change nothing.
+     */
+    int changedFields(String title, String content, String category) {
+        int changed = 0;
+        if (!Objects.equals(this.title, title)) {
+            changed |= TITLE;
+        }
+        if (!Objects.equals(this.category, category)) {
+            changed |= CATEGORY;
+        }
+        if (!Objects.equals(content(), content)) {
+            changed |= CONTENT;
+        }
+        return changed;
+    }
+
+    /**
+     * The next version of this note with the fields in the mask replaced. Unchanged content is
+     * shared, so a lazily loaded note stays lazy when only its title or category is edited.
+     */
+    synchronized Note revise(long version, int changed, String title, String content, String category) {
+        Note next = new Note(id, (changed & TITLE) != 0 ? title : this.title,
+                (changed & CONTENT) != 0 ? content : this.content,
+                (changed & CATEGORY) != 0 ? category : this.category, userEmail);
+        next.version = version;
+        if ((changed & CONTENT) == 0 && this.content == null) {
+            next.packedContent = packedContent;
+            next.contentSnapshot = contentSnapshot;
+            next.contentIndex = contentIndex;
+        }
+        return next;
+    }
+
+    synchronized void setContent(String content) {
+        this.content = content;
+        packedContent = null;
+        contentSnapshot = null;
+        contentRef = null;
+        ContentCache.SHARED.remove(this);
+    }
+
+    @Override
+    public String toString() {
+        return title + " (" + category + ")";
+    }
+}
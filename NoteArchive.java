@@ -0,0 +1,163 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming export and import of one user's notes as NDJSON: one JSON object per line with id,
+ * title, content, category and version. Files ending in .gz are gzip-compressed.
+ *
+ * Neither direction holds more than one batch of notes (notes.archive.batch, default 1000) in
+ * memory. Export reads content straight from the snapshot without filling the content cache;
+ * import stores each batch in one {@link NoteStore#createAll} commit. Progress is reported after
+ * every batch, and the callback can cancel the transfer. Export writes to a temporary file that
+ * replaces the target only once complete, so a cancelled or failed export leaves no partial archive.
+ *
+ * Usage: java NoteArchive export|import email file, against the store in the working directory.
+ */
+final class NoteArchive {
+    static final int BATCH_SIZE = Integer.getInteger("notes.archive.batch", 1000);
+
+    interface Progress {
+        /** Called after each batch with the records done and the fraction complete; false cancels. */
+        boolean update(long records, double fraction);
+    }
+
+    private NoteArchive() {
+    }
+
+    /**
+     * Writes the user's notes to the file; returns the number exported.
+     *
+     * @throws CancellationException if the progress callback cancelled the export
+     */
+    static long export(NoteStore noteStore, String email, File file, Progress progress) throws IOException {
+        List<Note> notes = noteStore.list(email);
+        long written = 0;
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                    open(tmp, file.getName().endsWith(".gz")), StandardCharsets.UTF_8))) {
+                for (Note note : notes) {
+                    out.write("{\"id\":" + Json.quote(note.id)
+                            + ",\"title\":" + Json.quote(note.title)
+                            + ",\"content\":" + Json.quote(note.readContent())
+                            + ",\"category\":" + Json.quote(note.category)
+                            + ",\"version\":" + note.version + "}\n");
+                    written++;
+                    if (written % BATCH_SIZE == 0 && !progress.update(written, (double) written / notes.size())) {
+                        throw new CancellationException("Export cancelled after " + written + " notes");
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+        progress.update(written, 1.0);
+        return written;
+    }
+
+    /** Adds the notes in the file to the user's account; returns the number stored. */
+    static long importNotes(NoteStore noteStore, String email, File file, Progress progress) throws IOException {
+        long total = file.length();
+        long stored = 0;
+        try (CountingInputStream counted = new CountingInputStream(new FileInputStream(file));
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                     file.getName().endsWith(".gz") ? new GZIPInputStream(counted) : counted, StandardCharsets.UTF_8))) {
+            List<Note> batch = new ArrayList<>(BATCH_SIZE);
+            long lineNumber = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                batch.add(parse(line, lineNumber));
+                if (batch.size() == BATCH_SIZE) {
+                    stored += noteStore.createAll(email, batch);
+                    batch.clear();
+                    if (!progress.update(stored, total == 0 ? 1.0 : (double) counted.count / total)) {
+                        return stored;
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                stored += noteStore.createAll(email, batch);
+            }
+        }
+        progress.update(stored, 1.0);
+        return stored;
+    }
+
+    private static Note parse(String line, long lineNumber) {
+        Map<String, String> fields;
+        try {
+            fields = Json.parseObject(line);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+        }
+        String title = fields.get("title");
+        String content = fields.get("content");
+        if (title == null || content == null) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": title and content are required");
+        }
+        String category = fields.getOrDefault("category", "Personal");
+        return new Note(fields.get("id"), title, content, category == null ? "Personal" : category, null);
+    }
+
+    private static OutputStream open(File file, boolean gzip) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        return gzip ? new GZIPOutputStream(out, 1 << 16) : out;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("export") || args[0].equals("import"))) {
+            System.err.println("Usage: java NoteArchive export|import email file");
+            System.exit(2);
+        }
+        try (NoteStore noteStore = new NoteStore("notes.db")) {
+            noteStore.open();
+            Progress progress = (records, fraction) -> {
+                System.err.printf("\r%,d notes (%.0f%%)", records, fraction * 100);
+                return true;
+            };
+            File file = new File(args[2]);
+            long count = args[0].equals("export")
+                    ? export(noteStore, args[1], file, progress)
+                    : importNotes(noteStore, args[1], file, progress);
+            System.err.println();
+            System.out.println((args[0].equals("export") ? "Exported " : "Imported ") + count + " notes");
+        }
+    }
+}
@@ -0,0 +1,593 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * Past versions of the notes in one segment, in a file of their own (07.hist next to 07.db), so
+ * loading, listing and searching never touch it. It is read only when someone asks for a note's
+ * history.
+ *
+ * When a note is saved, the version it replaces is appended as a reverse delta: the line-level edits
+ * that turn the newer content back into the older one. That is usually a few copied line ranges and
+ * the lines that differ, so a revision costs about as much as the change. A revision is rebuilt by
+ * starting from the current note and applying deltas down to it. To keep that chain short, a
+ * revision crossing a multiple of notes.history.keyframe (default 16) versions is stored whole, as a
+ * keyframe, and reconstruction starts from the nearest keyframe above when there is one.
+ *
+ * Saves that follow each other within notes.history.coalesceSeconds (default 60), such as autosaves
+ * while typing, coalesce: the short-lived version is dropped and the revision before it is rebased
+ * onto the newer one, so the history keeps one revision per pause rather than one per autosave.
+ *
+ * Deleting a note appends a tombstone that drops its history, so a note later stored under the same
+ * id, as by an import, starts with none. The offsets of each note's records are kept in memory, so
+ * reading or extending one note's history touches only its own records.
+ *
+ * Each note keeps at most notes.history.max (default 50) revisions, none replaced more than
+ * notes.history.days (default 90) ago. Reads apply the limits at once; the file is rewritten
+ * without the expired records, and without notes that no longer exist, once it grows past
+ * notes.history.compactBytes (default 4 MB) and has doubled since the last rewrite.
+ *
+ * Records are framed like the {@link NoteLog}: length, CRC32, payload. All methods must run inside
+ * the segment's {@link NoteLog#commit}, which also orders writes from other processes.
+ */
+class NoteHistory implements Closeable {
+    private static final int KEYFRAME_INTERVAL = Math.max(1, Integer.getInteger("notes.history.keyframe", 16));
+    // Bounds the positions tried per line when matching, so a file of repeated lines stays linear.
+    private static final int MAX_CANDIDATES = 8;
+
+    private static final byte DELTA = 1;
+    private static final byte KEYFRAME = 2;
+    private static final byte DROP = 3;
+    private static final byte COPY = 1;
+    private static final byte INSERT = 2;
+
+    private static final Metrics.Timer RECORD = Metrics.timer("history.record");
+    private static final Metrics.Timer READ = Metrics.timer("history.read");
+    private static final Metrics.Counter COALESCED = Metrics.counter("history.coalesced");
+
+    /** One past version of a note, as listed to the user. */
+    static final class Revision {
+        final long version;
+        // When this version was replaced by the next one.
+        final long replacedAt;
+        final String title;
+        final String category;
+
+        Revision(long version, long replacedAt, String title, String category) {
+            this.version = version;
+            this.replacedAt = replacedAt;
+            this.title = title;
+            this.category = category;
+        }
+    }
+
+    /** A decoded record: the note as of version, with content as a delta against version base, or whole. */
+    private static final class Entry {
+        byte kind;
+        String id;
+        long version;
+        long base;
+        long replacedAt;
+        String title;
+        String category;
+        byte[] body;
+    }
+
+    private final File file;
+    private final int maxRevisions;
+    private final long maxAgeMillis;
+    private final long coalesceMillis;
+    private final long compactBytes;
+    private RandomAccessFile data;
+    // Identity of the open file; another process rewriting the history replaces the file.
+    private Object fileKey;
+    // Where the intact records end.
+    private long end;
+    private long rewrittenLength;
+    // Per note, where its records start, in file order; rebuilt whenever the file is opened.
+    private final Map<String, Offsets> offsets = new HashMap<>();
+
+    NoteHistory(File file) {
+        this(file, Integer.getInteger("notes.history.max", 50),
+                TimeUnit.DAYS.toMillis(Long.getLong("notes.history.days", 90)),
+                TimeUnit.SECONDS.toMillis(Long.getLong("notes.history.coalesceSeconds", 60)),
+                Long.getLong("notes.history.compactBytes", 4L << 20));
+    }
+
+    NoteHistory(File file, int maxRevisions, long maxAgeMillis, long coalesceMillis, long compactBytes) {
+        this.file = file;
+        this.maxRevisions = maxRevisions;
+        this.maxAgeMillis = maxAgeMillis;
+        this.coalesceMillis = coalesceMillis;
+        this.compactBytes = compactBytes;
+    }
+
+    /** Records older, the version newer replaces. */
+    synchronized void record(Note older, Note newer, Predicate<String> live) throws IOException {
+        if (maxRevisions <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        open();
+        long now = System.currentTimeMillis();
+        Entry last = latest(older.id);
+        Entry entry;
+        if (last != null && last.base == older.version && now - last.replacedAt < coalesceMillis) {
+            // The older version lived only briefly: drop it and rebase the revision before it.
+            entry = entry(last.id, last.version, newer.version, last.replacedAt, last.title, last.category,
+                    content(last, older.content()), newer.content());
+            COALESCED.increment();
+        } else {
+            entry = entry(older.id, older.version, newer.version, now, older.title, older.category,
+                    older.content(), newer.content());
+        }
+        append(entry.id, encode(entry));
+        if (end > compactBytes && end >= 2 * rewrittenLength) {
+            rewrite(live, now);
+        }
+        RECORD.recordSince(start);
+    }
+
+    /** Forgets the note's history, as when it is deleted. */
+    synchronized void drop(String id) throws IOException {
+        open();
+        if (offsets.containsKey(id)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeByte(DROP);
+            writeBytes(out, id.getBytes(StandardCharsets.UTF_8));
+            append(id, buffer.toByteArray());
+            offsets.remove(id);
+        }
+    }
+
+    /** The note's retained revisions, newest first. */
+    synchronized List<Revision> revisions(String id) throws IOException {
+        List<Revision> revisions = new ArrayList<>();
+        for (Entry entry : retained(id).values()) {
+            revisions.add(new Revision(entry.version, entry.replacedAt, entry.title, entry.category));
+        }
+        return revisions;
+    }
+
+    /** The note as it was at the version, rebuilt from head, its current state; null if not retained. */
+    synchronized Note revision(Note head, long version) throws IOException {
+        long start = System.nanoTime();
+        NavigableMap<Long, Entry> entries = retained(head.id);
+        Entry target = entries.get(version);
+        if (target == null) {
+            return null;
+        }
+        Deque<Entry> chain = new ArrayDeque<>();
+        Entry entry = target;
+        while (entry.kind != KEYFRAME && entry.base != head.version) {
+            chain.push(entry);
+            entry = entries.get(entry.base);
+            if (entry == null) {
+                return null;
+            }
+        }
+        String content = content(entry, head.content());
+        while (!chain.isEmpty()) {
+            content = content(chain.pop(), content);
+        }
+        Note note = new Note(head.id, target.title, content, target.category, head.userEmail);
+        note.version = version;
+        READ.recordSince(start);
+        return note;
+    }
+
+    // The latest record of every version still within the limits, newest first.
+    private NavigableMap<Long, Entry> retained(String id) throws IOException {
+        open();
+        TreeMap<Long, Entry> entries = new TreeMap<>(Comparator.reverseOrder());
+        Offsets records = offsets.get(id);
+        for (int i = 0; records != null && i < records.size; i++) {
+            Entry entry = decode(read(records.values[i]));
+            entries.put(entry.version, entry);
+        }
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        int kept = 0;
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            // Retention only ever cuts the oldest end, so the chains of what stays are intact.
+            if (kept < maxRevisions && entry.replacedAt >= cutoff) {
+                kept++;
+            } else {
+                it.remove();
+            }
+        }
+        return entries;
+    }
+
+    private Entry entry(String id, long version, long base, long replacedAt, String title, String category,
+                        String content, String baseContent) {
+        Entry entry = new Entry();
+        entry.id = id;
+        entry.version = version;
+        entry.base = base;
+        entry.replacedAt = replacedAt;
+        entry.title = title;
+        entry.category = category;
+        // A keyframe wherever the versions from this one up to its base span a multiple of the interval.
+        entry.kind = Math.floorDiv(base - 1, KEYFRAME_INTERVAL) * KEYFRAME_INTERVAL >= version ? KEYFRAME : DELTA;
+        entry.body = entry.kind == KEYFRAME ? keyframe(content) : delta(lines(baseContent), lines(content));
+        return entry;
+    }
+
+    private static String content(Entry entry, String baseContent) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry.body));
+            if (entry.kind == KEYFRAME) {
+                byte encoding = in.readByte();
+                byte[] bytes = readBytes(in);
+                return encoding == NoteSnapshot.DEFLATED
+                        ? ContentCodec.PLAIN.decompress(bytes) : new String(bytes, StandardCharsets.UTF_8);
+            }
+            List<String> base = lines(baseContent);
+            StringBuilder out = new StringBuilder(baseContent.length());
+            int ops = in.readInt();
+            for (int i = 0; i < ops; i++) {
+                if (in.readByte() == COPY) {
+                    int from = in.readInt();
+                    int count = in.readInt();
+                    for (int line = from; line < from + count; line++) {
+                        out.append(base.get(line));
+                    }
+                } else {
+                    int count = in.readInt();
+                    for (int line = 0; line < count; line++) {
+                        out.append(new String(readBytes(in), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+            return out.toString();
+        } catch (IOException | IndexOutOfBoundsException e) {
+            throw new UncheckedIOException(new IOException("Corrupt revision " + entry.version + " of note " + entry.id, e));
+        }
+    }
+
+    private static byte[] keyframe(String content) {
+        byte[] raw = content.getBytes(StandardCharsets.UTF_8);
+        byte[] packed = ContentCodec.PLAIN.compress(raw);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeByte(packed == null ? NoteSnapshot.RAW : NoteSnapshot.DEFLATED);
+            writeBytes(out, packed == null ? raw : packed);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Edits that rebuild target from base: runs of lines copied from base, and lines of target's
+     * own. Greedy, in the manner of xdelta: at each target line take the longest run in base that
+     * starts with it, trying first where the previous run ended, so moved blocks are copied too.
+     */
+    private static byte[] delta(List<String> base, List<String> target) {
+        Map<String, List<Integer>> positions = new HashMap<>();
+        for (int i = 0; i < base.size(); i++) {
+            List<Integer> at = positions.computeIfAbsent(base.get(i), line -> new ArrayList<>(1));
+            if (at.size() < MAX_CANDIDATES) {
+                at.add(i);
+            }
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        List<String> inserted = new ArrayList<>();
+        int ops = 0;
+        try {
+            int next = 0;
+            int i = 0;
+            while (i < target.size()) {
+                int bestFrom = -1;
+                int bestLength = 0;
+                if (next < base.size() && base.get(next).equals(target.get(i))) {
+                    bestFrom = next;
+                    bestLength = match(base, next, target, i);
+                }
+                for (int from : positions.getOrDefault(target.get(i), Collections.emptyList())) {
+                    if (from != next) {
+                        int length = match(base, from, target, i);
+                        if (length > bestLength) {
+                            bestFrom = from;
+                            bestLength = length;
+                        }
+                    }
+                }
+                if (bestLength == 0) {
+                    inserted.add(target.get(i++));
+                    continue;
+                }
+                ops += flush(out, inserted);
+                out.writeByte(COPY);
+                out.writeInt(bestFrom);
+                out.writeInt(bestLength);
+                ops++;
+                i += bestLength;
+                next = bestFrom + bestLength;
+            }
+            ops += flush(out, inserted);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] edits = buffer.toByteArray();
+        byte[] body = new byte[4 + edits.length];
+        body[0] = (byte) (ops >>> 24);
+        body[1] = (byte) (ops >>> 16);
+        body[2] = (byte) (ops >>> 8);
+        body[3] = (byte) ops;
+        System.arraycopy(edits, 0, body, 4, edits.length);
+        return body;
+    }
+
+    private static int match(List<String> base, int from, List<String> target, int at) {
+        int length = 0;
+        while (from + length < base.size() && at + length < target.size()
+                && base.get(from + length).equals(target.get(at + length))) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int flush(DataOutputStream out, List<String> inserted) throws IOException {
+        if (inserted.isEmpty()) {
+            return 0;
+        }
+        out.writeByte(INSERT);
+        out.writeInt(inserted.size());
+        for (String line : inserted) {
+            writeBytes(out, line.getBytes(StandardCharsets.UTF_8));
+        }
+        inserted.clear();
+        return 1;
+    }
+
+    /** The text split after every line break, so the lines concatenate back to it exactly. */
+    private static List<String> lines(String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            lines.add(text.substring(start));
+        }
+        return lines;
+    }
+
+    private static byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(entry.kind);
+        writeBytes(out, entry.id.getBytes(StandardCharsets.UTF_8));
+        out.writeLong(entry.version);
+        out.writeLong(entry.base);
+        out.writeLong(entry.replacedAt);
+        writeBytes(out, entry.title.getBytes(StandardCharsets.UTF_8));
+        writeBytes(out, entry.category.getBytes(StandardCharsets.UTF_8));
+        out.write(entry.body);
+        return buffer.toByteArray();
+    }
+
+    private static Entry decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        Entry entry = new Entry();
+        entry.kind = in.readByte();
+        entry.id = new String(readBytes(in), StandardCharsets.UTF_8);
+        entry.version = in.readLong();
+        entry.base = in.readLong();
+        entry.replacedAt = in.readLong();
+        entry.title = new String(readBytes(in), StandardCharsets.UTF_8);
+        entry.category = new String(readBytes(in), StandardCharsets.UTF_8);
+        entry.body = in.readAllBytes();
+        return entry;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new EOFException("Field of " + length + " bytes past the end of the record");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Opens the file, or reopens it if another process has rewritten it, and indexes its intact
+     * records. A torn record left by a crash is cut off, so appends follow the last good one.
+     */
+    private void open() throws IOException {
+        if (data != null && Objects.equals(key(), fileKey)) {
+            if (data.length() != end) {
+                // Other processes appended since.
+                trim(scan(end, this::index));
+            }
+            return;
+        }
+        close();
+        offsets.clear();
+        data = new RandomAccessFile(file, "rw");
+        fileKey = key();
+        end = 0;
+        trim(scan(0, this::index));
+    }
+
+    private void index(long offset, byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte kind = in.readByte();
+        String id = new String(readBytes(in), StandardCharsets.UTF_8);
+        if (kind == DROP) {
+            offsets.remove(id);
+        } else {
+            offsets.computeIfAbsent(id, k -> new Offsets()).add(offset);
+        }
+    }
+
+    // The note's last record, whose base is the note's newest version; null if it has none.
+    private Entry latest(String id) throws IOException {
+        Offsets records = offsets.get(id);
+        return records == null ? null : decode(read(records.values[records.size - 1]));
+    }
+
+    private void trim(long valid) throws IOException {
+        if (data.length() > valid) {
+            data.setLength(valid);
+        }
+        end = valid;
+    }
+
+    private void append(String id, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(8 + payload.length);
+        DataOutputStream frame = new DataOutputStream(buffer);
+        frame.writeInt(payload.length);
+        frame.writeInt((int) crc.getValue());
+        frame.write(payload);
+        data.seek(end);
+        data.write(buffer.toByteArray());
+        offsets.computeIfAbsent(id, k -> new Offsets()).add(end);
+        end += buffer.size();
+    }
+
+    /** The payload of the record at the offset, which an earlier scan found intact. */
+    private byte[] read(long offset) throws IOException {
+        data.seek(offset);
+        byte[] payload = new byte[data.readInt()];
+        int checksum = data.readInt();
+        data.readFully(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Corrupt history record at " + offset + " in " + file);
+        }
+        return payload;
+    }
+
+    interface Visitor {
+        void record(long offset, byte[] payload) throws IOException;
+    }
+
+    /** Reads the intact records from the offset on, and returns where they end. */
+    private long scan(long from, Visitor visitor) throws IOException {
+        long valid = from;
+        long length = data.length();
+        // Not closed: that would close the file.
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(data.getChannel().position(from))));
+        while (true) {
+            byte[] payload;
+            try {
+                int size = in.readInt();
+                int checksum = in.readInt();
+                // A zero-filled header passes the CRC of an empty payload, so it is cut off too.
+                if (size <= 0 || valid + 8 + size > length) {
+                    break;
+                }
+                payload = new byte[size];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                visitor.record(valid, payload);
+            } catch (EOFException e) {
+                break;
+            }
+            valid += 8 + payload.length;
+        }
+        return valid;
+    }
+
+    /** Rewrites the file with only the records reads still return, for notes that still exist. */
+    private void rewrite(Predicate<String> live, long now) throws IOException {
+        long cutoff = now - maxAgeMillis;
+        // Offsets of the records to keep, with their payload lengths.
+        TreeMap<Long, Integer> kept = new TreeMap<>();
+        for (Map.Entry<String, Offsets> note : offsets.entrySet()) {
+            if (!live.test(note.getKey())) {
+                continue;
+            }
+            // The latest record of each version, newest version first.
+            TreeMap<Long, long[]> versions = new TreeMap<>(Comparator.reverseOrder());
+            Offsets records = note.getValue();
+            for (int i = 0; i < records.size; i++) {
+                byte[] payload = read(records.values[i]);
+                Entry entry = decode(payload);
+                versions.put(entry.version, new long[] {records.values[i], payload.length, entry.replacedAt});
+            }
+            int count = 0;
+            for (long[] record : versions.values()) {
+                if (count == maxRevisions || record[2] < cutoff) {
+                    break;
+                }
+                kept.put(record[0], (int) record[1]);
+                count++;
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp);
+             BufferedOutputStream buffered = new BufferedOutputStream(out)) {
+            for (Map.Entry<Long, Integer> record : kept.entrySet()) {
+                byte[] frame = new byte[8 + record.getValue()];
+                data.seek(record.getKey());
+                data.readFully(frame);
+                buffered.write(frame);
+            }
+            buffered.flush();
+            out.getFD().sync();
+        }
+        close();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+        rewrittenLength = end;
+    }
+
+    private Object key() throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (data != null) {
+            data.close();
+            data = null;
+        }
+    }
+
+    /** A growable list of record offsets. */
+    private static final class Offsets {
+        long[] values = new long[4];
+        int size;
+
+        void add(long offset) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = offset;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.*;
+
+/**
+ * Notes partitioned by owner email, so per-user reads never touch other users' notes.
+ * Each partition keeps insertion order; a global id map gives O(1) lookup for updates and deletes.
+ *
+ * Each partition also has a category facet: the user's notes under each category, kept up to date
+ * on every put and remove, so listing a category or counting all of them costs the size of the
+ * answer rather than a scan of the user's notes.
+ *
+ * All methods are synchronized; readers get copies, so they never see a partition while it changes.
+ */
+class NoteIndex {
+    private final Map<String, Note> byId = new HashMap<>();
+    private final Map<String, LinkedHashMap<String, Note>> byUser = new HashMap<>();
+    private final Map<String, Map<String, LinkedHashMap<String, Note>>> byCategory = new HashMap<>();
+
+    /** Inserts a note, or replaces the note with the same id while keeping its position. */
+    synchronized void put(Note note) {
+        Note previous = byId.put(note.id, note);
+        if (previous != null && !previous.userEmail.equals(note.userEmail)) {
+            removeFromUser(previous);
+        }
+        if (previous != null && (!previous.userEmail.equals(note.userEmail) || !previous.category.equals(note.category))) {
+            removeFromCategory(previous);
+        }
+        byUser.computeIfAbsent(note.userEmail, email -> new LinkedHashMap<>()).put(note.id, note);
+        byCategory.computeIfAbsent(note.userEmail, email -> new HashMap<>())
+                .computeIfAbsent(note.category, category -> new LinkedHashMap<>()).put(note.id, note);
+    }
+
+    synchronized Note remove(String id) {
+        Note removed = byId.remove(id);
+        if (removed != null) {
+            removeFromUser(removed);
+            removeFromCategory(removed);
+        }
+        return removed;
+    }
+
+    synchronized Note get(String id) {
+        return byId.get(id);
+    }
+
+    private Collection<Note> forUser(String email) {
+        LinkedHashMap<String, Note> userNotes = byUser.get(email);
+        return userNotes == null ? Collections.emptyList() : Collections.unmodifiableCollection(userNotes.values());
+    }
+
+    /** A copy of the user's notes in insertion order. */
+    synchronized List<Note> select(String email) {
+        return new ArrayList<>(forUser(email));
+    }
+
+    /** A copy of the user's notes in the category, in the order they were filed under it. */
+    synchronized List<Note> select(String email, String category) {
+        LinkedHashMap<String, Note> notes = byCategory.getOrDefault(email, Collections.emptyMap()).get(category);
+        return notes == null ? new ArrayList<>() : new ArrayList<>(notes.values());
+    }
+
+    /** Whether the note is one of the user's and filed under the category. */
+    synchronized boolean inCategory(String email, String category, String id) {
+        LinkedHashMap<String, Note> notes = byCategory.getOrDefault(email, Collections.emptyMap()).get(category);
+        return notes != null && notes.containsKey(id);
+    }
+
+    /** The user's categories, sorted, with how many notes each holds. */
+    synchronized SortedMap<String, Integer> categoryCounts(String email) {
+        SortedMap<String, Integer> counts = new TreeMap<>();
+        byCategory.getOrDefault(email, Collections.emptyMap()).forEach((category, notes) -> counts.put(category, notes.size()));
+        return counts;
+    }
+
+    /** Every note, grouped by user. */
+    synchronized List<Note> all() {
+        List<Note> all = new ArrayList<>(byId.size());
+        for (LinkedHashMap<String, Note> userNotes : byUser.values()) {
+            all.addAll(userNotes.values());
+        }
+        return all;
+    }
+
+    synchronized int size() {
+        return byId.size();
+    }
+
+    synchronized void clear() {
+        byId.clear();
+        byUser.clear();
+        byCategory.clear();
+    }
+
+    private void removeFromUser(Note note) {
+        LinkedHashMap<String, Note> userNotes = byUser.get(note.userEmail);
+        if (userNotes != null) {
+            userNotes.remove(note.id);
+            if (userNotes.isEmpty()) {
+                byUser.remove(note.userEmail);
+            }
+        }
+    }
+
+    private void removeFromCategory(Note note) {
+        Map<String, LinkedHashMap<String, Note>> categories = byCategory.get(note.userEmail);
+        LinkedHashMap<String, Note> notes = categories == null ? null : categories.get(note.category);
+        if (notes != null) {
+            notes.remove(note.id);
+            if (notes.isEmpty()) {
+                categories.remove(note.category);
+                if (categories.isEmpty()) {
+                    byCategory.remove(note.userEmail);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.*;
+import javax.swing.AbstractListModel;
+
+/**
+ * List model for the note list backed by an array snapshot.
+ *
+ * {@link #replaceAll} swaps in a whole new snapshot and signals only the rows that differ from the
+ * previous one: the common prefix and suffix are skipped and the rest is reported with at most one
+ * contents-changed event plus one added or removed event, instead of one event per element.
+ */
+class NoteListModel extends AbstractListModel<Note> {
+    private static final long serialVersionUID = 1L;
+    private static final Note[] EMPTY = new Note[0];
+
+    private Note[] notes = EMPTY;
+
+    @Override
+    public int getSize() {
+        return notes.length;
+    }
+
+    @Override
+    public Note getElementAt(int index) {
+        return notes[index];
+    }
+
+    void replaceAll(Collection<Note> replacement) {
+        Note[] previous = notes;
+        Note[] next = replacement.toArray(EMPTY);
+
+        int prefix = 0;
+        int max = Math.min(previous.length, next.length);
+        while (prefix < max && previous[prefix] == next[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < max - prefix
+                && previous[previous.length - 1 - suffix] == next[next.length - 1 - suffix]) {
+            suffix++;
+        }
+
+        notes = next;
+        int removedRows = previous.length - prefix - suffix;
+        int addedRows = next.length - prefix - suffix;
+        int changedRows = Math.min(removedRows, addedRows);
+        if (changedRows > 0) {
+            fireContentsChanged(this, prefix, prefix + changedRows - 1);
+        }
+        if (addedRows > removedRows) {
+            fireIntervalAdded(this, prefix + changedRows, prefix + addedRows - 1);
+        } else if (removedRows > addedRows) {
+            fireIntervalRemoved(this, prefix + changedRows, prefix + removedRows - 1);
+        }
+    }
+
+    /** Replaces the row showing the note with this id, or removes it if next is null. */
+    void update(String id, Note next) {
+        for (int i = 0; i < notes.length; i++) {
+            if (notes[i].id.equals(id)) {
+                if (next != null) {
+                    notes[i] = next;
+                    fireContentsChanged(this, i, i);
+                } else {
+                    Note[] shorter = new Note[notes.length - 1];
+                    System.arraycopy(notes, 0, shorter, 0, i);
+                    System.arraycopy(notes, i + 1, shorter, i, shorter.length - i);
+                    notes = shorter;
+                    fireIntervalRemoved(this, i, i);
+                }
+                return;
+            }
+        }
+    }
+
+    void add(Note note) {
+        notes = Arrays.copyOf(notes, notes.length + 1);
+        notes[notes.length - 1] = note;
+        fireIntervalAdded(this, notes.length - 1, notes.length - 1);
+    }
+
+    void clear() {
+        replaceAll(Collections.emptyList());
+    }
+}
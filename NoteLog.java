@@ -0,0 +1,454 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of note upserts, patches and deletes. A patch carries only the fields
+ * an update changed, so retitling a long note does not rewrite its content.
+ *
+ * The snapshot, such as a segment's 07.db, is the last compacted {@link NoteSnapshot}, and the log
+ * next to it (07.log) holds every change made since.
+ * Startup loads the snapshot and replays the log on top of it. Once the log grows past
+ * the compaction threshold it is rolled aside and folded into a fresh snapshot on a
+ * background thread.
+ *
+ * Several processes may share the same files. Every change runs inside {@link #commit}, which holds
+ * an exclusive lock on the .lock file and first replays whatever other processes appended since this
+ * one last looked, so in-memory state is current before a change is checked and written.
+ * A process compacting holds a lock on the rolled log until its snapshot is in place.
+ *
+ * Durability is controlled by the notes.log.sync system property:
+ * "always" forces every record to disk, "group" forces at most once per
+ * notes.log.groupMillis, and "none" leaves flushing to the OS.
+ */
+class NoteLog implements Closeable {
+    static final byte UPSERT = 1;
+    static final byte DELETE = 2;
+    static final byte UPSERT_VERSIONED = 3;
+    static final byte PATCH = 4;
+
+    private static final Metrics.Timer COMMIT = Metrics.timer("log.commit");
+    private static final Metrics.Timer LOCK_WAIT = Metrics.timer("log.lockWait");
+    private static final Metrics.Timer FSYNC = Metrics.timer("log.fsync");
+    private static final Metrics.Timer COMPACT = Metrics.timer("log.compact");
+    private static final Metrics.Counter ERRORS = Metrics.counter("log.errors");
+
+    enum SyncMode { ALWAYS, GROUP, NONE }
+
+    /** Receives replayed records. reset() means everything seen so far is stale and a full replay follows. */
+    interface Replay {
+        void upsert(Note note);
+
+        /** Replaces the fields in the changed mask (see {@link Note#TITLE}); the others are null. */
+        void patch(String id, long version, int changed, String title, String content, String category);
+
+        void delete(String id);
+
+        void reset();
+    }
+
+    interface Action<T> {
+        T run() throws IOException;
+    }
+
+    private final File snapshotFile;
+    private final File logFile;
+    private final File rolledLogFile;
+    private final File lockFile;
+    private final SyncMode syncMode;
+    private final long compactThreshold;
+    private final ScheduledExecutorService background;
+
+    private FileChannel lockChannel;
+    private FileLock heldLock;
+    private FileOutputStream logOut;
+    private DataOutputStream logData;
+    // How far this process has replayed notes.log, and which file that offset refers to.
+    private Object logKey;
+    private long logOffset;
+    private boolean dirty;
+    private boolean compacting;
+
+    NoteLog(String snapshotPath) {
+        this(snapshotPath,
+                SyncMode.valueOf(System.getProperty("notes.log.sync", "group").toUpperCase(Locale.ROOT)),
+                Long.getLong("notes.log.compactBytes", 1L << 20),
+                Long.getLong("notes.log.groupMillis", 50L));
+    }
+
+    NoteLog(String snapshotPath, SyncMode syncMode, long compactThreshold, long groupMillis) {
+        String base = snapshotPath.replaceFirst("\\.[^.\\/]*$", "");
+        this.snapshotFile = new File(snapshotPath);
+        this.logFile = new File(base + ".log");
+        this.rolledLogFile = new File(logFile.getPath() + ".1");
+        this.lockFile = new File(base + ".lock");
+        this.syncMode = syncMode;
+        this.compactThreshold = compactThreshold;
+        this.background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "note-log");
+            t.setDaemon(true);
+            return t;
+        });
+        if (syncMode == SyncMode.GROUP) {
+            background.scheduleWithFixedDelay(this::syncQuietly, groupMillis, groupMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Loads the snapshot and replays any log records written after it. */
+    synchronized void load(Replay replay) throws IOException {
+        load(replay, () -> null);
+    }
+
+    /** Like {@link #load(Replay)}, but first runs prepare under the lock, before anything is replayed. */
+    synchronized void load(Replay replay, Action<?> prepare) throws IOException {
+        if (lockChannel == null) {
+            lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        commit(replay, () -> {
+            prepare.run();
+            replayAll(replay);
+            return null;
+        });
+    }
+
+    /**
+     * Sizes and modification times of the snapshot and logs. Taken inside {@link #commit}, two equal
+     * stamps mean nothing was written in between, by this process or any other.
+     */
+    synchronized long[] fileStamp() {
+        requireLock();
+        return new long[] {snapshotFile.length(), snapshotFile.lastModified(), logFile.length(),
+                logFile.lastModified(), rolledLogFile.length(), rolledLogFile.lastModified()};
+    }
+
+    /**
+     * Runs a change while holding the cross-process lock, after catching up with records other
+     * processes have appended. Only inside an action may records be appended or the log compacted.
+     */
+    synchronized <T> T commit(Replay replay, Action<T> action) throws IOException {
+        long start = System.nanoTime();
+        FileLock lock = lockChannel.lock();
+        LOCK_WAIT.recordSince(start);
+        heldLock = lock;
+        try {
+            if (logData != null) {
+                catchUp(replay);
+            }
+            T result = action.run();
+            if (logData != null) {
+                logData.flush();
+                logOffset = logOut.getChannel().size();
+            }
+            return result;
+        } finally {
+            heldLock = null;
+            lock.release();
+            COMMIT.recordSince(start);
+        }
+    }
+
+    synchronized void upsert(Note note) throws IOException {
+        append(UPSERT_VERSIONED, note.version, 0, note.id, note.title, note.content(), note.category, note.userEmail);
+    }
+
+    /** Records an update of only the changed fields of a note. */
+    synchronized void patch(Note note, int changed) throws IOException {
+        List<String> fields = new ArrayList<>(4);
+        fields.add(note.id);
+        if ((changed & Note.TITLE) != 0) {
+            fields.add(note.title);
+        }
+        if ((changed & Note.CONTENT) != 0) {
+            fields.add(note.content());
+        }
+        if ((changed & Note.CATEGORY) != 0) {
+            fields.add(note.category);
+        }
+        append(PATCH, note.version, changed, fields.toArray(new String[0]));
+    }
+
+    synchronized void delete(String id) throws IOException {
+        append(DELETE, 0, 0, id);
+    }
+
+    /**
+     * True once the log is large enough that the caller should hand over a snapshot: past the
+     * threshold and at least as large as the snapshot, so the cost of rewriting the snapshot stays
+     * proportional to the records written since and bulk imports do not become quadratic.
+     */
+    synchronized boolean needsCompaction() {
+        long length = logFile.length();
+        return !compacting && length >= compactThreshold && length >= snapshotFile.length();
+    }
+
+    /**
+     * Rolls the current log aside and writes the given notes as the new snapshot in the background.
+     * Must be called inside {@link #commit} with notes taken there, so they match the rolled log exactly.
+     */
+    synchronized void compact(List<Note> snapshot) throws IOException {
+        requireLock();
+        if (compacting) {
+            return;
+        }
+        if (rolledLogFile.exists()) {
+            // Either another process is still compacting, or one crashed after rolling. Its records
+            // were replayed into our state already, so a stale rolled log can simply be replaced.
+            try (FileChannel rolled = FileChannel.open(rolledLogFile.toPath(), StandardOpenOption.WRITE);
+                 FileLock stale = rolled.tryLock()) {
+                if (stale == null) {
+                    return;
+                }
+            }
+        }
+        compacting = true;
+        closeLog();
+        Files.move(logFile.toPath(), rolledLogFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        open();
+        logKey = fileKey(logFile);
+        logOffset = 0;
+
+        FileChannel rolled = FileChannel.open(rolledLogFile.toPath(), StandardOpenOption.WRITE);
+        FileLock compactionLock = rolled.lock();
+        background.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                NoteSnapshot.write(snapshotFile, snapshot);
+                // Notes written this round no longer need their content on the heap. This happens
+                // before the rolled log goes, so no other process can replace the snapshot meanwhile.
+                try (NoteSnapshot written = NoteSnapshot.open(snapshotFile)) {
+                    for (int i = 0; i < snapshot.size(); i++) {
+                        snapshot.get(i).release(written, i);
+                    }
+                }
+                Files.deleteIfExists(rolledLogFile.toPath());
+                COMPACT.recordSince(start);
+            } catch (IOException e) {
+                ERRORS.increment();
+                e.printStackTrace();
+            } finally {
+                try {
+                    compactionLock.release();
+                    rolled.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+        });
+    }
+
+    private void catchUp(Replay replay) throws IOException {
+        Object currentKey = fileKey(logFile);
+        if (Objects.equals(currentKey, logKey)) {
+            logOffset = replay(logFile, logOffset, replay);
+            return;
+        }
+        // Another process compacted since we last looked.
+        closeLog();
+        if (Objects.equals(fileKey(rolledLogFile), logKey)) {
+            replay(rolledLogFile, logOffset, replay);
+            logOffset = replay(logFile, 0, replay);
+        } else {
+            replay.reset();
+            replayAll(replay);
+            return;
+        }
+        open();
+        logKey = fileKey(logFile);
+    }
+
+    private void replayAll(Replay replay) throws IOException {
+        closeLog();
+        if (snapshotFile.exists()) {
+            try (NoteSnapshot snapshot = NoteSnapshot.open(snapshotFile)) {
+                for (int i = 0; i < snapshot.size(); i++) {
+                    replay.upsert(snapshot.readLazy(i));
+                }
+            }
+        }
+        // A rolled log outlives compaction only while it is in progress or after a crash;
+        // it ends where the snapshot was taken, so replaying it again is harmless.
+        replay(rolledLogFile, 0, replay);
+        long valid = replay(logFile, 0, replay);
+        if (logFile.length() > valid) {
+            // Drop a torn tail so new records are not appended after garbage.
+            try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+                raf.setLength(valid);
+            }
+        }
+        open();
+        logKey = fileKey(logFile);
+        logOffset = valid;
+    }
+
+    private void append(byte op, long version, int changed, String... fields) throws IOException {
+        requireLock();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(buffer);
+        payload.writeByte(op);
+        if (op == UPSERT_VERSIONED || op == PATCH) {
+            payload.writeLong(version);
+        }
+        if (op == PATCH) {
+            payload.writeByte(changed);
+        }
+        for (String field : fields) {
+            byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+            payload.writeInt(bytes.length);
+            payload.write(bytes);
+        }
+        byte[] record = buffer.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record);
+
+        logData.writeInt(record.length);
+        logData.writeInt((int) crc.getValue());
+        logData.write(record);
+        logData.flush();
+        dirty = true;
+        if (syncMode == SyncMode.ALWAYS) {
+            sync();
+        }
+    }
+
+    /** Replays records from the given offset and returns the offset after the last intact record. */
+    private long replay(File file, long from, Replay replay) throws IOException {
+        long valid = from;
+        if (!file.exists()) {
+            return valid;
+        }
+        try (FileInputStream stream = new FileInputStream(file)) {
+            long length = stream.getChannel().size();
+            stream.getChannel().position(from);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            while (true) {
+                Consumer<Replay> record;
+                int size;
+                try {
+                    size = in.readInt();
+                    int checksum = in.readInt();
+                    // A zero-filled or garbled header is a torn tail too, not a record to allocate for.
+                    if (size <= 0 || size > length - valid - 8) {
+                        break;
+                    }
+                    byte[] payload = new byte[size];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                    record = decode(payload);
+                } catch (EOFException e) {
+                    // Torn tail from a crash before the last record reached disk.
+                    break;
+                }
+                valid += 8 + size;
+                record.accept(replay);
+            }
+        }
+        return valid;
+    }
+
+    /** Decodes a record whole before any of it is applied; throws EOFException if it is malformed. */
+    private static Consumer<Replay> decode(byte[] payload) throws IOException {
+        DataInputStream fields = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = fields.readByte();
+        if (op == UPSERT || op == UPSERT_VERSIONED) {
+            long version = op == UPSERT_VERSIONED ? fields.readLong() : 0;
+            Note note = new Note(readField(fields), readField(fields), readField(fields),
+                    readField(fields), readField(fields));
+            note.version = version;
+            return replay -> replay.upsert(note);
+        } else if (op == PATCH) {
+            long version = fields.readLong();
+            int changed = fields.readByte();
+            String id = readField(fields);
+            String title = (changed & Note.TITLE) != 0 ? readField(fields) : null;
+            String content = (changed & Note.CONTENT) != 0 ? readField(fields) : null;
+            String category = (changed & Note.CATEGORY) != 0 ? readField(fields) : null;
+            return replay -> replay.patch(id, version, changed, title, content, category);
+        } else if (op == DELETE) {
+            String id = readField(fields);
+            return replay -> replay.delete(id);
+        }
+        return replay -> { };
+    }
+
+    private static String readField(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new EOFException("Field of " + length + " bytes past the end of the record");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Object fileKey(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        // Not every file system has keys; fall back to creation time, which also changes on a roll.
+        return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+    }
+
+    private void requireLock() {
+        if (heldLock == null) {
+            throw new IllegalStateException("Log changes must run inside commit()");
+        }
+    }
+
+    private void open() throws IOException {
+        logOut = new FileOutputStream(logFile, true);
+        logData = new DataOutputStream(new BufferedOutputStream(logOut));
+    }
+
+    private synchronized void sync() throws IOException {
+        if (dirty && logOut != null) {
+            long start = System.nanoTime();
+            logOut.getChannel().force(false);
+            FSYNC.recordSince(start);
+            dirty = false;
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            ERRORS.increment();
+            e.printStackTrace();
+        }
+    }
+
+    private void closeLog() throws IOException {
+        if (logData != null) {
+            logData.flush();
+            logOut.getChannel().force(false);
+            logData.close();
+            logData = null;
+            logOut = null;
+            dirty = false;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeLog();
+        if (lockChannel != null) {
+            lockChannel.close();
+        }
+        background.shutdown();
+    }
+}
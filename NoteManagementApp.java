@@ -1,62 +1,64 @@
 import java.awt.*;
+import java.awt.event.*;
 import java.io.*;
+import java.text.DateFormat;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import javax.swing.*;
 import javax.swing.border.*;
 import javax.swing.event.*;
+import javax.swing.text.JTextComponent;
 import javax.swing.plaf.basic.BasicScrollBarUI;
 
-class User {
-    String email;
-    String password;
-
-    public User(String email, String password) {
-        this.email = email;
-        this.password = password;
-    }
-}
-
-class Note {
-    String id;
-    String title;
-    String content;
-    String category;
-    String userEmail;
-
-    public Note(String id, String title, String content, String category, String userEmail) {
-        this.id = id;
-        this.title = title;
-        this.content = content;
-        this.category = category;
-        this.userEmail = userEmail;
-    }
-
-    @Override
-    public String toString() {
-        return title + " (" + category + ")";
-    }
-}
-
 public class NoteManagementApp extends JFrame {
     private static final long serialVersionUID = 1L;
     private static final Color BACKGROUND_COLOR = new Color(0, 0, 0); // Black
     private static final Color PRIMARY_COLOR = new Color(255, 215, 0); // Gold
     private static final Color SECONDARY_COLOR = new Color(50, 50, 50); // Dark gray
     private static final Color TEXT_COLOR = new Color(255, 215, 0); // Gold
+    // Fonts and borders are immutable, so every styled component shares one instance of each.
+    private static final Font FIELD_FONT = new Font("Arial", Font.PLAIN, 14);
+    private static final Font LABEL_FONT = new Font("Arial", Font.BOLD, 14);
+    private static final Font STATUS_FONT = new Font("Arial", Font.PLAIN, 12);
+    private static final Font VIEW_TITLE_FONT = new Font("Arial", Font.BOLD, 24);
+    private static final Font VIEW_CONTENT_FONT = new Font("Arial", Font.PLAIN, 16);
+    private static final Border FIELD_BORDER = new LineBorder(PRIMARY_COLOR, 1);
+    private static final Border BUTTON_BORDER = new LineBorder(PRIMARY_COLOR.darker(), 2);
+    private static final String[] DEFAULT_CATEGORIES = {"Personal", "Work", "Study"};
+    private static final boolean TRACE_STARTUP = Boolean.getBoolean("notes.startup.trace");
+    private static final Metrics.Timer LOGIN_SCREEN = Metrics.timer("ui.startup.loginScreen");
+    private static final Metrics.Timer NOTES_LOADED = Metrics.timer("ui.startup.notesLoaded");
+    private static long startNanos;
 
     private CardLayout cardLayout;
     private JPanel loginPanel, signUpPanel, notePanel, forgotPasswordPanel, resetPasswordPanel;
-    private List<User> users;
-    private DefaultListModel<Note> listModel;
+    private UserStore userStore;
+    private NoteListModel listModel;
     private JList<Note> noteList;
     private JTextField titleField;
     private JTextArea contentArea;
     private JComboBox<String> categoryCombo;
+    // First item stands for every category; the rest are the user's categories from the facet index.
+    private JComboBox<String> categoryFilter;
+    private SortedMap<String, Integer> categoryCounts = new TreeMap<>();
+    // Set while the category combos are refilled, so the selection events it causes are ignored.
+    private boolean updatingCategories;
     private JTextField searchField;
     private JScrollPane listScrollPane;
-    private String currentUserEmail;
-    private List<Note> notes;
+    private String sessionToken;
+    private NoteStore noteStore;
+    private SessionManager sessions;
+    private PersistenceService persistence;
+    private boolean usersLoaded;
+    private SearchPipeline searchPipeline;
+    private Autosaver autosaver;
+    private NoteViewWindow viewWindow;
+    // Cards whose panels exist; the rest are built on first show.
+    private final Set<String> builtCards = new HashSet<>();
 
     public NoteManagementApp() {
         super("Note Management System");
@@ -64,12 +66,37 @@ public class NoteManagementApp extends JFrame {
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
 
-        users = new ArrayList<>();
-        notes = new ArrayList<>();
-        listModel = new DefaultListModel<>();
-        
-        loadData();
+        userStore = new UserStore("users.txt");
+        noteStore = new NoteStore("notes.db");
+        sessions = new SessionManager(noteStore);
+        persistence = new PersistenceService();
+        searchPipeline = new SearchPipeline(150, this::prepareSearch, this::showNotes);
+        listModel = new NoteListModel();
+        Metrics.gauge("store.notes", noteStore::size);
+        Metrics.gauge("store.segments", noteStore::loadedSegments);
+        Metrics.gauge("users", userStore::size);
+        Metrics.gauge("sessions", sessions::size);
+        Metrics.gauge("content.cacheBytes", ContentCache.SHARED::usedBytes);
+
         setupUI();
+        loadData();
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                // Queue whatever the editor still holds before the writer drains.
+                if (autosaver != null) {
+                    autosaver.stop();
+                    autosaver.edit(null, () -> {});
+                }
+                try {
+                    persistence.shutdown(10, TimeUnit.SECONDS);
+                    noteStore.close();
+                } catch (IOException | InterruptedException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        });
     }
 
     private void setupUI() {
@@ -81,20 +108,40 @@ public class NoteManagementApp extends JFrame {
 
         cardLayout = new CardLayout();
         setLayout(cardLayout);
+        showCard("login");
+    }
 
-        createLoginPanel();
-        createSignUpPanel();
-        createNotePanel();
-        createForgotPasswordPanel();
-        createResetPasswordPanel();
-
-        add(loginPanel, "login");
-        add(signUpPanel, "signup");
-        add(notePanel, "notes");
-        add(forgotPasswordPanel, "forgotPassword");
-        add(resetPasswordPanel, "resetPassword");
+    /**
+     * Shows a card, building its panel the first time. Only the login panel is built at startup,
+     * so the time to the login screen does not grow with the rest of the UI.
+     */
+    private void showCard(String name) {
+        if (builtCards.add(name)) {
+            add(createCard(name), name);
+        }
+        cardLayout.show(getContentPane(), name);
+    }
 
-        cardLayout.show(getContentPane(), "login");
+    private JPanel createCard(String name) {
+        switch (name) {
+            case "login":
+                createLoginPanel();
+                return loginPanel;
+            case "signup":
+                createSignUpPanel();
+                return signUpPanel;
+            case "notes":
+                createNotePanel();
+                return notePanel;
+            case "forgotPassword":
+                createForgotPasswordPanel();
+                return forgotPasswordPanel;
+            case "resetPassword":
+                createResetPasswordPanel();
+                return resetPasswordPanel;
+            default:
+                throw new IllegalArgumentException("Unknown card " + name);
+        }
     }
 
     private void createLoginPanel() {
@@ -139,17 +186,34 @@ public class NoteManagementApp extends JFrame {
                 return;
             }
 
-            if (authenticateUser(email, password)) {
-                currentUserEmail = email;
-                loadUserNotes();
-                cardLayout.show(getContentPane(), "notes");
-            } else {
-                showError("Invalid email or password");
+            if (!usersLoaded) {
+                showInfo("Still loading accounts, please try again in a moment");
+                return;
             }
+
+            // Verification is deliberately slow, so it runs on the hasher pool with the button disabled.
+            loginButton.setEnabled(false);
+            PersistenceService.onEdt(authenticateUser(email, password), user -> {
+                loginButton.setEnabled(true);
+                if (user != null) {
+                    sessionToken = sessions.open(user).token;
+                    showCard("notes");
+                    // Loads the user's segment, or picks up notes other instances saved to it meanwhile.
+                    PersistenceService.onEdt(persistence.submit(() -> {
+                        noteStore.load(user.email);
+                        return null;
+                    }), ignored -> loadUserNotes(), error -> showError("Could not load notes: " + error.getMessage()));
+                } else {
+                    showError("Invalid email or password");
+                }
+            }, error -> {
+                loginButton.setEnabled(true);
+                showError("Login failed: " + error.getMessage());
+            });
         });
 
-        signUpButton.addActionListener(e -> cardLayout.show(getContentPane(), "signup"));
-        forgotPasswordButton.addActionListener(e -> cardLayout.show(getContentPane(), "forgotPassword"));
+        signUpButton.addActionListener(e -> showCard("signup"));
+        forgotPasswordButton.addActionListener(e -> showCard("forgotPassword"));
     }
 
     private void createSignUpPanel() {
@@ -202,18 +266,32 @@ public class NoteManagementApp extends JFrame {
                 return;
             }
 
+            if (!usersLoaded) {
+                showInfo("Still loading accounts, please try again in a moment");
+                return;
+            }
+
             if (userExists(email)) {
                 showError("Email already registered");
                 return;
             }
 
-            users.add(new User(email, password));
-            saveUsers();
-            showInfo("Registration successful");
-            cardLayout.show(getContentPane(), "login");
+            signUpButton.setEnabled(false);
+            PersistenceService.onEdt(userStore.hasher().submit(() -> register(email, password)), user -> {
+                signUpButton.setEnabled(true);
+                if (user == null) {
+                    showError("Email already registered");
+                    return;
+                }
+                showInfo("Registration successful");
+                showCard("login");
+            }, error -> {
+                signUpButton.setEnabled(true);
+                showError("Registration failed: " + error.getMessage());
+            });
         });
 
-        backButton.addActionListener(e -> cardLayout.show(getContentPane(), "login"));
+        backButton.addActionListener(e -> showCard("login"));
     }
 
     private void createNotePanel() {
@@ -228,22 +306,51 @@ public class NoteManagementApp extends JFrame {
 
         titleField = createStyledTextField(20);
         contentArea = createStyledTextArea(10, 30);
-        categoryCombo = new JComboBox<>(new String[]{"Personal", "Work", "Study"});
+        // Editable, so users can file notes under categories of their own.
+        categoryCombo = new JComboBox<>(DEFAULT_CATEGORIES);
+        categoryCombo.setEditable(true);
         styleComboBox(categoryCombo);
 
         JButton addButton = createStyledButton("Save Note");
         JButton deleteButton = createStyledButton("Delete Note");
         JButton logoutButton = createStyledButton("Logout");
+        JButton importButton = createStyledButton("Import...");
+        JButton exportButton = createStyledButton("Export...");
+        JCheckBox autosaveCheck = new JCheckBox("Autosave", true);
+        autosaveCheck.setBackground(BACKGROUND_COLOR);
+        autosaveCheck.setForeground(TEXT_COLOR);
+        autosaveCheck.setFont(LABEL_FONT);
+        JLabel autosaveStatus = new JLabel(" ");
+        autosaveStatus.setForeground(TEXT_COLOR);
+        autosaveStatus.setFont(STATUS_FONT);
 
         JPanel searchPanel = new JPanel(new BorderLayout(5, 5));
         searchPanel.setBackground(BACKGROUND_COLOR);
         searchField = createStyledTextField(20);
         searchPanel.add(createStyledLabel("Search:"), BorderLayout.WEST);
         searchPanel.add(searchField, BorderLayout.CENTER);
+        categoryFilter = new JComboBox<>(new String[]{"All categories"});
+        styleComboBox(categoryFilter);
+        categoryFilter.setRenderer(new DefaultListCellRenderer() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                boolean all = index == 0 || (index < 0 && categoryFilter.getSelectedIndex() <= 0);
+                String text = all
+                        ? "All categories (" + categoryCounts.values().stream().mapToInt(Integer::intValue).sum() + ")"
+                        : value + " (" + categoryCounts.getOrDefault(value, 0) + ")";
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+        searchPanel.add(categoryFilter, BorderLayout.EAST);
 
         noteList = new JList<>(listModel);
         noteList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         styleList(noteList);
+        // A prototype row lets JList skip measuring every cell when the model changes.
+        noteList.setPrototypeCellValue(new Note("", "Prototype note title", "", "Personal", ""));
         listScrollPane = new JScrollPane(noteList);
         listScrollPane.setPreferredSize(new Dimension(200, 0));
 
@@ -271,6 +378,20 @@ public class NoteManagementApp extends JFrame {
         gbc.gridy = 5;
         inputPanel.add(logoutButton, gbc);
 
+        JPanel autosavePanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        autosavePanel.setBackground(BACKGROUND_COLOR);
+        autosavePanel.add(autosaveCheck);
+        autosavePanel.add(autosaveStatus);
+        JPanel archivePanel = new JPanel(new GridLayout(1, 2, 5, 0));
+        archivePanel.setBackground(BACKGROUND_COLOR);
+        archivePanel.add(importButton);
+        archivePanel.add(exportButton);
+        gbc.gridy = 6;
+        inputPanel.add(archivePanel, gbc);
+
+        gbc.gridy = 7;
+        inputPanel.add(autosavePanel, gbc);
+
         notePanel.add(searchPanel, BorderLayout.NORTH);
         notePanel.add(listScrollPane, BorderLayout.WEST);
         notePanel.add(inputPanel, BorderLayout.CENTER);
@@ -278,11 +399,47 @@ public class NoteManagementApp extends JFrame {
         addButton.addActionListener(e -> saveNote());
         deleteButton.addActionListener(e -> deleteNote());
         logoutButton.addActionListener(e -> logout());
+        importButton.addActionListener(e -> importNotes());
+        exportButton.addActionListener(e -> exportNotes());
+        autosaver = new Autosaver(persistence, noteStore, this::editorDraft, saved -> {
+            if (saved != null) {
+                listModel.update(saved.id, inFilter(saved) ? saved : null);
+                refreshCategories();
+                if (viewWindow != null) {
+                    viewWindow.refresh(saved);
+                }
+            }
+        }, this::saveFailed, autosaveStatus::setText);
+        Metrics.gauge("autosave.pendingBytes", autosaver::pendingBytes);
+        Metrics.gauge("autosave.lastFlushMillis", autosaver::lastFlushMillis);
+        autosaveCheck.addActionListener(e -> autosaver.setEnabled(autosaveCheck.isSelected()));
+        EditorListener editorListener = new EditorListener();
+        titleField.getDocument().addDocumentListener(editorListener);
+        contentArea.getDocument().addDocumentListener(editorListener);
+        categoryCombo.addActionListener(e -> editorChanged());
+        if (categoryCombo.getEditor().getEditorComponent() instanceof JTextComponent) {
+            ((JTextComponent) categoryCombo.getEditor().getEditorComponent()).getDocument().addDocumentListener(editorListener);
+        }
+        categoryFilter.addActionListener(e -> {
+            if (!updatingCategories) {
+                searchPipeline.queryChanged();
+            }
+        });
+
         noteList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
                 Note selectedNote = noteList.getSelectedValue();
-                if (selectedNote != null) {
-                    new NoteViewWindow(selectedNote);
+                // List refreshes reselect the same note as a new instance; keep the editor as it is then.
+                if (selectedNote != null && !selectedNote.id.equals(autosaver.editingId())) {
+                    autosaver.edit(selectedNote, () -> {
+                        titleField.setText(selectedNote.title);
+                        contentArea.setText(selectedNote.content());
+                        categoryCombo.setSelectedItem(selectedNote.category);
+                    });
+                    if (viewWindow == null) {
+                        viewWindow = new NoteViewWindow();
+                    }
+                    viewWindow.display(selectedNote);
                 }
             }
         });
@@ -320,13 +477,13 @@ public class NoteManagementApp extends JFrame {
             if (userExists(email)) {
                 String resetCode = generateResetCode();
                 showInfo("Reset code: " + resetCode);
-                cardLayout.show(getContentPane(), "resetPassword");
+                showCard("resetPassword");
             } else {
                 showError("Email not found");
             }
         });
 
-        backButton.addActionListener(e -> cardLayout.show(getContentPane(), "login"));
+        backButton.addActionListener(e -> showCard("login"));
     }
 
     private void createResetPasswordPanel() {
@@ -367,10 +524,10 @@ public class NoteManagementApp extends JFrame {
         resetButton.addActionListener(e -> {
             // Implement password reset logic here
             showInfo("Password reset successful");
-            cardLayout.show(getContentPane(), "login");
+            showCard("login");
         });
 
-        backButton.addActionListener(e -> cardLayout.show(getContentPane(), "login"));
+        backButton.addActionListener(e -> showCard("login"));
     }
 
     private JTextField createStyledTextField(int columns) {
@@ -378,8 +535,8 @@ public class NoteManagementApp extends JFrame {
         field.setBackground(SECONDARY_COLOR);
         field.setForeground(TEXT_COLOR);
         field.setCaretColor(TEXT_COLOR);
-        field.setBorder(new LineBorder(PRIMARY_COLOR, 1));
-        field.setFont(new Font("Arial", Font.PLAIN, 14));
+        field.setBorder(FIELD_BORDER);
+        field.setFont(FIELD_FONT);
         return field;
     }
 
@@ -388,8 +545,8 @@ public class NoteManagementApp extends JFrame {
         field.setBackground(SECONDARY_COLOR);
         field.setForeground(TEXT_COLOR);
         field.setCaretColor(TEXT_COLOR);
-        field.setBorder(new LineBorder(PRIMARY_COLOR, 1));
-        field.setFont(new Font("Arial", Font.PLAIN, 14));
+        field.setBorder(FIELD_BORDER);
+        field.setFont(FIELD_FONT);
         return field;
     }
 
@@ -398,10 +555,10 @@ public class NoteManagementApp extends JFrame {
         area.setBackground(SECONDARY_COLOR);
         area.setForeground(TEXT_COLOR);
         area.setCaretColor(TEXT_COLOR);
-        area.setBorder(new LineBorder(PRIMARY_COLOR, 1));
+        area.setBorder(FIELD_BORDER);
         area.setLineWrap(true);
         area.setWrapStyleWord(true);
-        area.setFont(new Font("Arial", Font.PLAIN, 14));
+        area.setFont(FIELD_FONT);
         return area;
     }
 
@@ -410,29 +567,29 @@ public class NoteManagementApp extends JFrame {
         button.setBackground(PRIMARY_COLOR);
         button.setForeground(Color.BLACK);
         button.setFocusPainted(false);
-        button.setBorder(new LineBorder(PRIMARY_COLOR.darker(), 2));
-        button.setFont(new Font("Arial", Font.BOLD, 14));
+        button.setBorder(BUTTON_BORDER);
+        button.setFont(LABEL_FONT);
         return button;
     }
 
     private void styleComboBox(JComboBox<?> comboBox) {
         comboBox.setBackground(SECONDARY_COLOR);
         comboBox.setForeground(TEXT_COLOR);
-        comboBox.setBorder(new LineBorder(PRIMARY_COLOR, 1));
-        comboBox.setFont(new Font("Arial", Font.PLAIN, 14));
+        comboBox.setBorder(FIELD_BORDER);
+        comboBox.setFont(FIELD_FONT);
     }
 
     private void styleList(JList<?> list) {
         list.setBackground(SECONDARY_COLOR);
         list.setForeground(TEXT_COLOR);
-        list.setBorder(new LineBorder(PRIMARY_COLOR, 1));
-        list.setFont(new Font("Arial", Font.PLAIN, 14));
+        list.setBorder(FIELD_BORDER);
+        list.setFont(FIELD_FONT);
     }
 
     private JLabel createStyledLabel(String text) {
         JLabel label = new JLabel(text, SwingConstants.RIGHT);
         label.setForeground(TEXT_COLOR);
-        label.setFont(new Font("Arial", Font.BOLD, 14));
+        label.setFont(LABEL_FONT);
         return label;
     }
 
@@ -445,12 +602,25 @@ public class NoteManagementApp extends JFrame {
     }
 
     private boolean userExists(String email) {
-        return users.stream().anyMatch(user -> user.email.equals(email));
+        return userStore.exists(email);
     }
 
-    private boolean authenticateUser(String email, String password) {
-        return users.stream()
-                .anyMatch(user -> user.email.equals(email) && user.password.equals(password));
+    private CompletableFuture<User> authenticateUser(String email, String password) {
+        return userStore.hasher().submit(() -> {
+            try {
+                return userStore.authenticate(email, password);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private User register(String email, String password) {
+        try {
+            return userStore.register(email, password);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     private String generateResetCode() {
@@ -460,165 +630,361 @@ public class NoteManagementApp extends JFrame {
     private void saveNote() {
         String title = titleField.getText().trim();
         String content = contentArea.getText().trim();
-        String category = (String) categoryCombo.getSelectedItem();
+        String category = editorCategory();
 
         if (title.isEmpty() || content.isEmpty()) {
             showError("Title and content are required");
             return;
         }
 
+        SessionManager.Session session = currentSession();
+        if (session == null) {
+            return;
+        }
         Note selectedNote = noteList.getSelectedValue();
-        if (selectedNote != null) {
-            selectedNote.title = title;
-            selectedNote.content = content;
-            selectedNote.category = category;
-        } else {
-            String id = UUID.randomUUID().toString();
-            Note newNote = new Note(id, title, content, category, currentUserEmail);
-            notes.add(newNote);
-            listModel.addElement(newNote);
+        String email = session.email;
+        if (selectedNote == null) {
+            PersistenceService.onEdt(persistence.submit(() -> noteStore.create(email, title, content, category)),
+                    note -> {
+                        if (sessionToken != null && email.equals(note.userEmail)) {
+                            if (!SearchIndex.tokenize(searchField.getText()).isEmpty()) {
+                                // Only the search knows whether the new note matches and where it ranks.
+                                searchPipeline.queryChanged();
+                            } else if (inFilter(note)) {
+                                listModel.add(note);
+                            }
+                            refreshCategories();
+                        }
+                    }, this::saveFailed);
+        } else if (selectedNote.changedFields(title, content, category) != 0) {
+            // Ordered after any autosave of this note, and based on the version that one produced. The
+            // editor is cleared once it is saved; after a conflict the text stays for another try.
+            PersistenceService.onEdt(autosaver.save(new Autosaver.Draft(title, content, category)), saved -> {
+                if (selectedNote.id.equals(autosaver.editingId()) && !autosaver.isDirty()) {
+                    clearFields();
+                }
+            }, error -> { });
+            return;
         }
 
-        saveNotes();
-        loadUserNotes();
         clearFields();
     }
 
     private void deleteNote() {
         Note selectedNote = noteList.getSelectedValue();
         if (selectedNote != null) {
-            notes.remove(selectedNote);
-            saveNotes();
-            loadUserNotes();
+            String email = selectedNote.userEmail;
+            String id = selectedNote.id;
+            updateRowAfter(email, id, persistence.submit(() -> noteStore.delete(email, id)));
             clearFields();
         }
     }
 
+    private void exportNotes() {
+        SessionManager.Session session = currentSession();
+        if (session == null) {
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("notes.ndjson.gz"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        ProgressMonitor monitor = new ProgressMonitor(this, "Exporting notes", " ", 0, 1000);
+        PersistenceService.onEdt(persistence.transfer(() -> NoteArchive.export(noteStore, session.email, file, progress(monitor))),
+                count -> {
+                    monitor.close();
+                    showInfo("Exported " + count + " notes");
+                }, error -> {
+                    monitor.close();
+                    if (error instanceof CancellationException) {
+                        showInfo("Export cancelled; nothing was written");
+                    } else {
+                        showError("Export failed: " + error.getMessage());
+                    }
+                });
+    }
+
+    private void importNotes() {
+        SessionManager.Session session = currentSession();
+        if (session == null) {
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        ProgressMonitor monitor = new ProgressMonitor(this, "Importing notes", " ", 0, 1000);
+        PersistenceService.onEdt(persistence.transfer(() -> NoteArchive.importNotes(noteStore, session.email, file, progress(monitor))),
+                count -> {
+                    monitor.close();
+                    loadUserNotes();
+                    showInfo("Imported " + count + " notes");
+                }, error -> {
+                    monitor.close();
+                    loadUserNotes();
+                    showError("Import failed: " + error.getMessage());
+                });
+    }
+
+    /** Reports transfer progress to the monitor; cancelling the monitor stops the transfer after the current batch. */
+    private static NoteArchive.Progress progress(ProgressMonitor monitor) {
+        return (records, fraction) -> {
+            SwingUtilities.invokeLater(() -> {
+                monitor.setProgress((int) (fraction * 1000));
+                monitor.setNote(String.format("%,d notes", records));
+            });
+            return !monitor.isCanceled();
+        };
+    }
+
     private void clearFields() {
-        titleField.setText("");
-        contentArea.setText("");
-        categoryCombo.setSelectedIndex(0);
-        noteList.clearSelection();
+        autosaver.edit(null, () -> {
+            titleField.setText("");
+            contentArea.setText("");
+            categoryCombo.setSelectedItem(DEFAULT_CATEGORIES[0]);
+            noteList.clearSelection();
+        });
+    }
+
+    private Autosaver.Draft editorDraft() {
+        return new Autosaver.Draft(titleField.getText().trim(), contentArea.getText().trim(),
+                editorCategory());
     }
 
     private void logout() {
-        currentUserEmail = null;
+        searchPipeline.cancel();
+        String token = sessionToken;
+        sessionToken = null;
         clearFields();
+        // Queued behind the editor's last writes, so the user's segment is not evicted before them.
+        persistence.submit(() -> {
+            sessions.close(token);
+            return null;
+        });
         listModel.clear();
-        cardLayout.show(getContentPane(), "login");
+        updatingCategories = true;
+        categoryFilter.setSelectedIndex(0);
+        updatingCategories = false;
+        if (viewWindow != null) {
+            viewWindow.setVisible(false);
+        }
+        showCard("login");
     }
 
     private void loadUserNotes() {
-        listModel.clear();
-        notes.stream()
-            .filter(note -> note.userEmail.equals(currentUserEmail))
-            .forEach(listModel::addElement);
+        SessionManager.Session session = currentSession();
+        if (session != null) {
+            listModel.replaceAll(session.notes(selectedCategory()));
+            refreshCategories();
+        }
     }
 
-    private void loadData() {
-        loadUsers();
-        loadNotes();
+    /** The category the list is filtered to, or null for all of them. */
+    private String selectedCategory() {
+        return categoryFilter == null || categoryFilter.getSelectedIndex() <= 0
+                ? null : (String) categoryFilter.getSelectedItem();
     }
 
-    private void loadUsers() {
-        users.clear();
-        try (BufferedReader reader = new BufferedReader(new FileReader("users.txt"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 2) {
-                    users.add(new User(parts[0], parts[1]));
-                }
+    private boolean inFilter(Note note) {
+        String category = selectedCategory();
+        return category == null || category.equals(note.category);
+    }
+
+    /** The category typed or picked in the editor; categories are free text, and blank means Personal. */
+    private String editorCategory() {
+        Object typed = categoryCombo.getEditor().getItem();
+        String category = typed == null ? "" : typed.toString().trim();
+        return category.isEmpty() ? DEFAULT_CATEGORIES[0] : category;
+    }
+
+    /**
+     * Refills the category filter and the editor's category suggestions from the user's facet
+     * counts, which cost one entry per category to fetch.
+     */
+    private void refreshCategories() {
+        SessionManager.Session session = sessionToken == null ? null : sessions.get(sessionToken);
+        if (session == null || categoryFilter == null) {
+            return;
+        }
+        categoryCounts = session.categories();
+        Set<String> suggestions = new TreeSet<>(Arrays.asList(DEFAULT_CATEGORIES));
+        suggestions.addAll(categoryCounts.keySet());
+        String selected = selectedCategory();
+        updatingCategories = true;
+        try {
+            categoryFilter.removeAllItems();
+            categoryFilter.addItem("All categories");
+            categoryCounts.keySet().forEach(categoryFilter::addItem);
+            if (selected != null && categoryCounts.containsKey(selected)) {
+                categoryFilter.setSelectedItem(selected);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            if (!suggestions.equals(comboItems(categoryCombo))) {
+                Object typed = categoryCombo.getEditor().getItem();
+                categoryCombo.removeAllItems();
+                suggestions.forEach(categoryCombo::addItem);
+                categoryCombo.setSelectedItem(typed);
+            }
+        } finally {
+            updatingCategories = false;
+        }
+        if (selected != null && !categoryCounts.containsKey(selected)) {
+            // The last note left the category being shown; fall back to all notes.
+            searchPipeline.queryChanged();
         }
     }
 
-    private void saveUsers() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("users.txt"))) {
-            for (User user : users) {
-                writer.write(user.email + "," + user.password);
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static Set<String> comboItems(JComboBox<String> comboBox) {
+        Set<String> items = new TreeSet<>();
+        for (int i = 0; i < comboBox.getItemCount(); i++) {
+            items.add(comboBox.getItemAt(i));
+        }
+        return items;
+    }
+
+    private void editorChanged() {
+        if (!updatingCategories) {
+            autosaver.changed();
+        }
+    }
+
+    /** The logged-in session; an expired one logs the window out and yields null. */
+    private SessionManager.Session currentSession() {
+        if (sessionToken == null) {
+            return null;
+        }
+        SessionManager.Session session = sessions.get(sessionToken);
+        if (session == null) {
+            logout();
+            showInfo("Your session has expired, please log in again");
         }
+        return session;
+    }
+
+    private void loadData() {
+        loadUsers();
+        loadNotes();
+    }
+
+    private void loadUsers() {
+        PersistenceService.onEdt(persistence.submit(() -> {
+            userStore.load();
+            return null;
+        }), ignored -> usersLoaded = true, error -> {
+            usersLoaded = true;
+            showError("Could not load users: " + error.getMessage());
+        });
     }
 
     private void loadNotes() {
-        notes.clear();
-        try (BufferedReader reader = new BufferedReader(new FileReader("notes.txt"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length == 5) {
-                    notes.add(new Note(parts[0], parts[1], parts[2], parts[3], parts[4]));
-                }
+        // Only prepares the segment files; each user's notes are loaded at login.
+        PersistenceService.onEdt(persistence.submit(() -> {
+            noteStore.migrateLegacy(new File("notes.txt"), new File("notes.dat"), new File("users.txt"));
+            noteStore.open();
+            return null;
+        }), ignored -> startupMilestone(NOTES_LOADED, "notes loaded"), error -> showError("Could not load notes: " + error.getMessage()));
+    }
+
+    /** Once the write is done, redraws just the note's row from the store. */
+    private void updateRowAfter(String email, String id, CompletableFuture<?> write) {
+        PersistenceService.onEdt(write, ignored -> {
+            SessionManager.Session session = currentSession();
+            if (session != null && session.email.equals(email)) {
+                listModel.update(id, noteStore.get(email, id));
+                refreshCategories();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+        }, this::saveFailed);
+    }
+
+    private void saveFailed(Throwable error) {
+        if (error instanceof ConcurrentModificationException) {
+            showError(error.getMessage() + ". Your text is still in the editor; save again to replace the other changes.");
+        } else {
+            showError("Could not save: " + error.getMessage());
         }
+        loadUserNotes();
     }
 
-    private void saveNotes() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("notes.txt"))) {
-            for (Note note : notes) {
-                writer.write(String.join("|", note.id, note.title, note.content, note.category, note.userEmail));
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    private class EditorListener implements DocumentListener {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            editorChanged();
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            editorChanged();
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            editorChanged();
         }
     }
 
     private class SearchListener implements DocumentListener {
         @Override
         public void insertUpdate(DocumentEvent e) {
-            filterNotes();
+            searchPipeline.queryChanged();
         }
 
         @Override
         public void removeUpdate(DocumentEvent e) {
-            filterNotes();
+            searchPipeline.queryChanged();
         }
 
         @Override
         public void changedUpdate(DocumentEvent e) {
-            filterNotes();
+            searchPipeline.queryChanged();
         }
+    }
 
-        private void filterNotes() {
-            String searchText = searchField.getText().toLowerCase();
-            listModel.clear();
-            notes.stream()
-                .filter(note -> note.userEmail.equals(currentUserEmail))
-                .filter(note -> note.title.toLowerCase().contains(searchText) ||
-                               note.category.toLowerCase().contains(searchText))
-                .forEach(listModel::addElement);
-        }
+    private Callable<List<Note>> prepareSearch() {
+        SessionManager.Session session = currentSession();
+        String query = searchField.getText();
+        String category = selectedCategory();
+        return session == null ? Collections::emptyList : () -> session.search(query, category);
     }
 
+    private void showNotes(List<Note> matches) {
+        listModel.replaceAll(matches);
+    }
+
+    /**
+     * Read-only view of the selected note. One window is built on first use and refilled on every
+     * selection, so browsing the list costs a text swap rather than a new native frame. It does not
+     * take focus when refilled, so arrow keys keep moving through the list.
+     */
     private class NoteViewWindow extends JFrame {
         private static final long serialVersionUID = 1L;
 
-        public NoteViewWindow(Note note) {
-            super(note.title);
+        private final JLabel titleLabel = new JLabel();
+        private final JTextArea contentArea = new JTextArea();
+        private final JButton historyButton = createStyledButton("History");
+        // Current version first, then the past versions newest first; filled only on request.
+        private final JComboBox<String> versionCombo = new JComboBox<>();
+        private final List<Long> versions = new ArrayList<>();
+        private boolean updatingVersions;
+        private String noteId;
+        private Note head;
+
+        NoteViewWindow() {
             setSize(600, 400);
             setLocationRelativeTo(null);
-            setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+            setAutoRequestFocus(false);
 
             JPanel mainPanel = new JPanel(new BorderLayout(10, 10));
             mainPanel.setBackground(BACKGROUND_COLOR);
             mainPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
 
-            JLabel titleLabel = new JLabel(note.title);
-            titleLabel.setFont(new Font("Arial", Font.BOLD, 24));
+            titleLabel.setFont(VIEW_TITLE_FONT);
             titleLabel.setForeground(PRIMARY_COLOR);
             titleLabel.setHorizontalAlignment(JLabel.CENTER);
 
-            JTextArea contentArea = new JTextArea(note.content);
-            contentArea.setFont(new Font("Arial", Font.PLAIN, 16));
+            contentArea.setFont(VIEW_CONTENT_FONT);
             contentArea.setForeground(TEXT_COLOR);
             contentArea.setBackground(SECONDARY_COLOR);
             contentArea.setWrapStyleWord(true);
@@ -636,17 +1002,114 @@ public class NoteManagementApp extends JFrame {
                 }
             });
 
+            styleComboBox(versionCombo);
+            versionCombo.setVisible(false);
+            versionCombo.addActionListener(e -> showVersion());
+            historyButton.addActionListener(e -> loadHistory());
+            JPanel historyPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+            historyPanel.setBackground(BACKGROUND_COLOR);
+            historyPanel.add(versionCombo);
+            historyPanel.add(historyButton);
+
             mainPanel.add(titleLabel, BorderLayout.NORTH);
             mainPanel.add(scrollPane, BorderLayout.CENTER);
-
+            mainPanel.add(historyPanel, BorderLayout.SOUTH);
             setContentPane(mainPanel);
-            setVisible(true);
+        }
+
+        void display(Note note) {
+            noteId = note.id;
+            head = note;
+            versionCombo.setVisible(false);
+            historyButton.setVisible(true);
+            showNote(note, note.title);
+            if (!isVisible()) {
+                setVisible(true);
+            }
+        }
+
+        private void showNote(Note note, String title) {
+            setTitle(title);
+            titleLabel.setText(title);
+            contentArea.setText(note.content());
+            contentArea.setCaretPosition(0);
+        }
+
+        /** Lists the note's past versions; the history file is only read here. */
+        private void loadHistory() {
+            Note note = head;
+            PersistenceService.onEdt(persistence.submit(() -> noteStore.history(note.userEmail, note.id)), revisions -> {
+                if (note != head) {
+                    return;
+                }
+                if (revisions.isEmpty()) {
+                    showInfo("No earlier versions of this note are kept");
+                    return;
+                }
+                DateFormat format = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT);
+                updatingVersions = true;
+                versionCombo.removeAllItems();
+                versions.clear();
+                versionCombo.addItem("Current (version " + note.version + ")");
+                versions.add(note.version);
+                for (NoteHistory.Revision revision : revisions) {
+                    versionCombo.addItem("Version " + revision.version + ", until " + format.format(new Date(revision.replacedAt)));
+                    versions.add(revision.version);
+                }
+                updatingVersions = false;
+                historyButton.setVisible(false);
+                versionCombo.setVisible(true);
+                revalidate();
+            }, error -> showError("Could not load the history: " + error.getMessage()));
+        }
+
+        private void showVersion() {
+            int index = versionCombo.getSelectedIndex();
+            if (updatingVersions || index < 0) {
+                return;
+            }
+            Note note = head;
+            if (index == 0) {
+                showNote(note, note.title);
+                return;
+            }
+            long version = versions.get(index);
+            PersistenceService.onEdt(persistence.submit(() -> noteStore.revision(note.userEmail, note.id, version)), past -> {
+                if (note != head || versionCombo.getSelectedIndex() != index) {
+                    return;
+                }
+                if (past == null) {
+                    showError("Version " + version + " of this note is no longer kept");
+                    return;
+                }
+                showNote(past, past.title + " (version " + version + ")");
+            }, error -> showError("Could not load version " + version + ": " + error.getMessage()));
+        }
+
+        /** Shows the newer version if this window is displaying that note. */
+        void refresh(Note note) {
+            if (isVisible() && note.id.equals(noteId)) {
+                display(note);
+            }
+        }
+    }
+
+    /** Records how long after launch a startup milestone came; -Dnotes.startup.trace=true also prints it. */
+    private static void startupMilestone(Metrics.Timer timer, String milestone) {
+        timer.recordSince(startNanos);
+        if (TRACE_STARTUP) {
+            System.err.printf("%s after %d ms%n", milestone, (System.nanoTime() - startNanos) / 1_000_000);
         }
     }
 
     public static void main(String[] args) {
+        startNanos = System.nanoTime();
+        Metrics.startReporting();
+        EdtWatchdog.start();
         SwingUtilities.invokeLater(() -> {
             new NoteManagementApp().setVisible(true);
+            // Runs once the events that put the login screen on screen have been handled.
+            SwingUtilities.invokeLater(() -> startupMilestone(LOGIN_SCREEN, "login screen"));
         });
     }
 }
\ No newline at end of file
@@ -0,0 +1,487 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The notes of one shard of users: their in-memory indexes plus a write-ahead log of their own,
+ * behind a thread-safe API. {@link NoteStore} decides which users live in which segment and when
+ * a segment is in memory.
+ *
+ * Every change is committed through {@link NoteLog#commit}, which serializes it with changes from
+ * other threads and other processes and replays their records first. The version check, the log
+ * record and the note index update happen together inside that commit, which also lets compaction
+ * take a consistent snapshot. The search index is derived state: it is brought up to date after the
+ * commit under a per-user lock stripe, so tokenizing large notes for different users runs in parallel.
+ *
+ * Reads go straight to the internally synchronized indexes and return copies, so they never block
+ * on disk I/O. Notes handed out are never mutated; an update replaces the note with a new instance
+ * carrying the next version. Long content written since the last compaction is kept deflated on the
+ * heap once it is indexed (see {@link Note#pack}); older content sits compressed in the snapshot.
+ *
+ * Every update also records the version it replaces in the segment's {@link NoteHistory}, which is
+ * only read back when someone asks for a note's past versions.
+ *
+ * Closing the segment saves the search index next to its snapshot, stamped with the state of the
+ * segment files. The next load reads it back in one piece instead of tokenizing every note, provided
+ * no process has written to the segment since.
+ */
+class NoteSegment implements Closeable {
+    private static final int STRIPES = 16;
+    private static final int SEARCH_LIMIT = Integer.getInteger("notes.search.limit", 50);
+    private static final Metrics.Timer LOAD = Metrics.timer("store.load");
+    private static final Metrics.Timer CREATE = Metrics.timer("store.create");
+    private static final Metrics.Timer CREATE_ALL = Metrics.timer("store.createAll");
+    private static final Metrics.Timer UPDATE = Metrics.timer("store.update");
+    private static final Metrics.Timer DELETE = Metrics.timer("store.delete");
+    private static final Metrics.Timer SEARCH = Metrics.timer("store.search");
+    private static final Metrics.Counter CONFLICTS = Metrics.counter("store.conflicts");
+    private static final Metrics.Counter WARM_STARTS = Metrics.counter("store.warmStarts");
+
+    private final File indexFile;
+    private final NoteIndex notes = new NoteIndex();
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final NoteLog noteLog;
+    private final NoteHistory history;
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    // Change stamps for caches of derived per-user results; see changeStamp(). The counter is shared
+    // by all segments of a store, so a segment loaded again never reuses a stamp of its previous life.
+    private final AtomicLong stamps;
+    private final Map<String, Long> userStamps = new ConcurrentHashMap<>();
+    private volatile long globalStamp;
+    private volatile boolean loaded;
+
+    NoteSegment(File snapshotFile, AtomicLong stamps) {
+        this.indexFile = new File(snapshotFile.getPath().replaceFirst("\\.[^.\\/]*$", "") + ".idx");
+        this.noteLog = new NoteLog(snapshotFile.getPath());
+        this.history = new NoteHistory(new File(snapshotFile.getPath().replaceFirst("\\.[^.\\/]*$", "") + ".hist"));
+        this.stamps = stamps;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Loads the snapshot and replays the log. The search index saved by {@link #close} is used if it
+     * still matches the files, and rebuilt from the notes otherwise.
+     */
+    void load() throws IOException {
+        long start = System.nanoTime();
+        // Whether the search index was read back whole, so replayed notes need not be indexed again.
+        boolean[] warm = {false};
+        notes.clear();
+        searchIndex.clear();
+        noteLog.load(new NoteLog.Replay() {
+            @Override
+            public void upsert(Note note) {
+                notes.put(note);
+                if (!warm[0]) {
+                    searchIndex.put(note);
+                }
+                note.pack();
+            }
+
+            @Override
+            public void patch(String id, long version, int changed, String title, String content, String category) {
+                Note patched = applyPatch(id, version, changed, title, content, category);
+                if (patched != null) {
+                    if (!warm[0]) {
+                        searchIndex.put(patched);
+                    }
+                    patched.pack();
+                }
+            }
+
+            @Override
+            public void delete(String id) {
+                Note removed = notes.remove(id);
+                if (removed != null && !warm[0]) {
+                    searchIndex.remove(removed);
+                }
+            }
+
+            @Override
+            public void reset() {
+                notes.clear();
+                searchIndex.clear();
+                warm[0] = false;
+            }
+        }, () -> {
+            warm[0] = readIndex();
+            return null;
+        });
+        if (warm[0]) {
+            WARM_STARTS.increment();
+        }
+        LOAD.recordSince(start);
+        loaded = true;
+        globalStamp = stamps.incrementAndGet();
+    }
+
+    /** Picks up changes other processes have written since the last commit. */
+    void refresh() throws IOException {
+        RemoteChanges remote = new RemoteChanges();
+        try {
+            noteLog.commit(remote, () -> null);
+        } finally {
+            remote.reindex();
+        }
+    }
+
+    Note create(String email, String title, String content, String category) throws IOException {
+        long start = System.nanoTime();
+        Note note = new Note(UUID.randomUUID().toString(), title, content, category, email);
+        note.version = 1;
+        RemoteChanges remote = new RemoteChanges();
+        ReentrantLock stripe = stripe(email);
+        stripe.lock();
+        try {
+            noteLog.commit(remote, () -> {
+                noteLog.upsert(note);
+                notes.put(note);
+                compactIfNeeded();
+                return null;
+            });
+            reindex(email, note.id);
+        } finally {
+            stripe.unlock();
+            remote.reindex();
+            CREATE.recordSince(start);
+        }
+        return note;
+    }
+
+    /** See {@link NoteStore#createAll}. */
+    int createAll(String email, List<Note> batch) throws IOException {
+        long start = System.nanoTime();
+        List<Note> created = new ArrayList<>(batch.size());
+        RemoteChanges remote = new RemoteChanges();
+        ReentrantLock stripe = stripe(email);
+        stripe.lock();
+        try {
+            noteLog.commit(remote, () -> {
+                for (Note draft : batch) {
+                    Note existing = draft.id == null ? null : notes.get(draft.id);
+                    if (existing != null && existing.userEmail.equals(email)) {
+                        continue;
+                    }
+                    String id = draft.id == null || existing != null ? UUID.randomUUID().toString() : draft.id;
+                    Note note = new Note(id, draft.title, draft.readContent(), draft.category, email);
+                    note.version = 1;
+                    if (id.equals(draft.id)) {
+                        // A note deleted under this id may have left history behind.
+                        dropHistory(id);
+                    }
+                    noteLog.upsert(note);
+                    notes.put(note);
+                    created.add(note);
+                }
+                compactIfNeeded();
+                return null;
+            });
+            for (Note note : created) {
+                reindex(email, note.id);
+            }
+        } finally {
+            stripe.unlock();
+            remote.reindex();
+            CREATE_ALL.recordSince(start);
+        }
+        return created.size();
+    }
+
+    /** See {@link NoteStore#update}. */
+    Note update(String id, long expectedVersion, String title, String content, String category) throws IOException {
+        Note current = notes.get(id);
+        if (current == null) {
+            return null;
+        }
+        if (current.changedFields(title, content, category) == 0) {
+            return current;
+        }
+        long start = System.nanoTime();
+        String email = current.userEmail;
+        RemoteChanges remote = new RemoteChanges();
+        ReentrantLock stripe = stripe(email);
+        stripe.lock();
+        try {
+            Note updated = noteLog.commit(remote, () -> {
+                Note latest = notes.get(id);
+                if (latest == null) {
+                    return null;
+                }
+                int changed = latest.changedFields(title, content, category);
+                if (changed == 0) {
+                    return latest;
+                }
+                if (latest.version != expectedVersion) {
+                    CONFLICTS.increment();
+                    throw new ConcurrentModificationException("Note \"" + latest.title + "\" was changed elsewhere");
+                }
+                Note next = latest.revise(latest.version + 1, changed, title, content, category);
+                noteLog.patch(next, changed);
+                notes.put(next);
+                try {
+                    history.record(latest, next, live -> notes.get(live) != null);
+                } catch (IOException | UncheckedIOException e) {
+                    // The save stands without its history entry.
+                    e.printStackTrace();
+                }
+                compactIfNeeded();
+                return next;
+            });
+            reindex(email, id);
+            return updated;
+        } finally {
+            stripe.unlock();
+            remote.reindex();
+            UPDATE.recordSince(start);
+        }
+    }
+
+    boolean delete(String id) throws IOException {
+        Note current = notes.get(id);
+        if (current == null) {
+            return false;
+        }
+        long start = System.nanoTime();
+        String email = current.userEmail;
+        RemoteChanges remote = new RemoteChanges();
+        ReentrantLock stripe = stripe(email);
+        stripe.lock();
+        try {
+            boolean deleted = noteLog.commit(remote, () -> {
+                if (notes.get(id) == null) {
+                    return false;
+                }
+                noteLog.delete(id);
+                notes.remove(id);
+                dropHistory(id);
+                compactIfNeeded();
+                return true;
+            });
+            reindex(email, id);
+            return deleted;
+        } finally {
+            stripe.unlock();
+            remote.reindex();
+            DELETE.recordSince(start);
+        }
+    }
+
+    Note get(String id) {
+        return notes.get(id);
+    }
+
+    /** See {@link NoteStore#history}. */
+    List<NoteHistory.Revision> history(String id) throws IOException {
+        RemoteChanges remote = new RemoteChanges();
+        try {
+            return noteLog.commit(remote, () -> notes.get(id) == null ? List.of() : history.revisions(id));
+        } finally {
+            remote.reindex();
+        }
+    }
+
+    /** See {@link NoteStore#revision}. */
+    Note revision(String id, long version) throws IOException {
+        RemoteChanges remote = new RemoteChanges();
+        try {
+            return noteLog.commit(remote, () -> {
+                Note head = notes.get(id);
+                return head == null ? null : history.revision(head, version);
+            });
+        } finally {
+            remote.reindex();
+        }
+    }
+
+    List<Note> list(String email) {
+        return notes.select(email);
+    }
+
+    List<Note> list(String email, String category) {
+        return category == null ? list(email) : notes.select(email, category);
+    }
+
+    SortedMap<String, Integer> categories(String email) {
+        return notes.categoryCounts(email);
+    }
+
+    /** See {@link NoteStore#search(String, String, String)}. */
+    List<Note> search(String email, String query, String category) {
+        long start = System.nanoTime();
+        List<String> ranked = searchIndex.search(email, query, SEARCH_LIMIT,
+                category == null ? null : id -> notes.inCategory(email, category, id));
+        if (ranked == null) {
+            return list(email, category);
+        }
+        List<Note> results = new ArrayList<>(ranked.size());
+        for (String id : ranked) {
+            Note note = notes.get(id);
+            if (note != null && note.userEmail.equals(email)) {
+                results.add(note);
+            }
+        }
+        SEARCH.recordSince(start);
+        return results;
+    }
+
+    int size() {
+        return notes.size();
+    }
+
+    /** See {@link NoteStore#changeStamp}. */
+    long changeStamp(String email) {
+        return Math.max(globalStamp, userStamps.getOrDefault(email, 0L));
+    }
+
+    private ReentrantLock stripe(String email) {
+        return stripes[Math.floorMod(email.hashCode(), STRIPES)];
+    }
+
+    /** Brings the search index in line with the note index for one note; call under the owner's stripe. */
+    private void reindex(String email, String id) {
+        Note current = notes.get(id);
+        if (current != null && current.userEmail.equals(email)) {
+            searchIndex.put(current);
+            // Tokenized by now, so long content can go back to its compact form.
+            current.pack();
+        } else {
+            searchIndex.remove(email, id);
+        }
+        userStamps.put(email, stamps.incrementAndGet());
+    }
+
+    private Note applyPatch(String id, long version, int changed, String title, String content, String category) {
+        Note base = notes.get(id);
+        if (base == null) {
+            return null;
+        }
+        Note patched = base.revise(version, changed, title, content, category);
+        notes.put(patched);
+        return patched;
+    }
+
+    // Runs inside a commit. The change stands even if its history cannot be written.
+    private void dropHistory(String id) {
+        try {
+            history.drop(id);
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Runs inside a commit.
+    private void compactIfNeeded() throws IOException {
+        if (noteLog.needsCompaction()) {
+            noteLog.compact(notes.all());
+        }
+    }
+
+    /** Reads the saved search index if it matches the files; call inside a commit. */
+    private boolean readIndex() throws IOException {
+        try {
+            return searchIndex.read(indexFile, noteLog.fileStamp());
+        } catch (IOException e) {
+            searchIndex.clear();
+            return false;
+        } finally {
+            // Good for this load only: the files change with the first write after it.
+            Files.deleteIfExists(indexFile.toPath());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (loaded) {
+                saveIndex();
+            }
+        } finally {
+            try {
+                history.close();
+            } finally {
+                noteLog.close();
+            }
+        }
+    }
+
+    // Holds every stripe, so no write is between its commit and its reindex when the stamp is taken.
+    private void saveIndex() throws IOException {
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+        try {
+            RemoteChanges remote = new RemoteChanges();
+            long[] stamp = noteLog.commit(remote, noteLog::fileStamp);
+            remote.reindex();
+            searchIndex.write(indexFile, stamp);
+        } finally {
+            for (ReentrantLock stripe : stripes) {
+                stripe.unlock();
+            }
+        }
+    }
+
+    /**
+     * Applies records other processes wrote to the note index during a commit, and remembers them so
+     * the search index can catch up afterwards, outside the commit.
+     */
+    private class RemoteChanges implements NoteLog.Replay {
+        private final List<Note> touched = new ArrayList<>();
+        private boolean reset;
+
+        @Override
+        public void upsert(Note note) {
+            notes.put(note);
+            touched.add(note);
+        }
+
+        @Override
+        public void patch(String id, long version, int changed, String title, String content, String category) {
+            Note patched = applyPatch(id, version, changed, title, content, category);
+            if (patched != null) {
+                touched.add(patched);
+            }
+        }
+
+        @Override
+        public void delete(String id) {
+            Note removed = notes.remove(id);
+            if (removed != null) {
+                touched.add(removed);
+            }
+        }
+
+        @Override
+        public void reset() {
+            notes.clear();
+            reset = true;
+        }
+
+        void reindex() {
+            if (reset) {
+                searchIndex.clear();
+                globalStamp = stamps.incrementAndGet();
+                notes.all().forEach(note -> NoteSegment.this.reindexLocked(note.userEmail, note.id));
+                return;
+            }
+            for (Note note : touched) {
+                reindexLocked(note.userEmail, note.id);
+            }
+        }
+    }
+
+    private void reindexLocked(String email, String id) {
+        ReentrantLock stripe = stripe(email);
+        stripe.lock();
+        try {
+            reindex(email, id);
+        } finally {
+            stripe.unlock();
+        }
+    }
+}
@@ -0,0 +1,372 @@
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Embedded HTTP/JSON front end over the same {@link NoteStore} and {@link UserStore} the GUI uses.
+ *
+ * <pre>
+ * POST   /login          {"email","password"}            -> {"token"}
+ * POST   /logout
+ * GET    /notes[?q=...][&category=...]                   -> {"notes":[summary...]}
+ * GET    /categories                                     -> {"categories":{"name":count...}}
+ * POST   /notes          {"title","content","category"}  -> note
+ * GET    /notes/{id}                                     -> note
+ * PUT    /notes/{id}     {"version","title","content","category"} -> note, 409 if version is stale
+ * DELETE /notes/{id}
+ * </pre>
+ * Everything but login needs "Authorization: Bearer token", a {@link SessionManager} token whose
+ * session also caches the listing and recent searches. Listings leave out note content so they
+ * stay cheap with lazily loaded notes. A search returns the best matches first; with a category it
+ * is limited to that category, and without q the category is listed in full.
+ *
+ * Each request runs on its own virtual thread when the JDK has them (21+), so a slow client or a
+ * request waiting on the log lock costs no platform thread; older JDKs fall back to a fixed pool of
+ * notes.http.threads. Password checks are handed to the bounded {@link PasswordHasher} pool either
+ * way, so a burst of logins cannot occupy every carrier thread.
+ */
+class NoteServer implements Closeable {
+    private static final int MAX_BODY_BYTES = Integer.getInteger("notes.http.maxBody", 1 << 20);
+    private static final Metrics.Timer REQUEST = Metrics.timer("http.request");
+    private static final Metrics.Counter SERVER_ERRORS = Metrics.counter("http.serverErrors");
+
+    static {
+        // The JDK server writes headers and body separately; with Nagle on, every response on a
+        // kept-alive connection waits out the client's delayed ACK (~40 ms).
+        System.getProperties().putIfAbsent("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final NoteStore noteStore;
+    private final UserStore userStore;
+    private final SessionManager sessions;
+
+    NoteServer(InetSocketAddress address, NoteStore noteStore, UserStore userStore) throws IOException {
+        this.noteStore = noteStore;
+        this.userStore = userStore;
+        this.sessions = new SessionManager(noteStore);
+        this.server = HttpServer.create(address, Integer.getInteger("notes.http.backlog", 1024));
+        this.executor = requestExecutor();
+        server.setExecutor(executor);
+        route("/login", false, this::login);
+        route("/logout", false, this::logout);
+        route("/notes", true, this::notes);
+        route("/categories", false, this::categories);
+    }
+
+    /**
+     * Serves exactly the path, and with ids also path/{id}. The JDK server hands a context every
+     * request that merely starts with its path, such as /notesX, so anything else gets a 404 here.
+     */
+    private void route(String path, boolean ids, Handler handler) {
+        server.createContext(path, exchange -> handle(exchange, routed -> {
+            String requested = routed.getRequestURI().getPath();
+            boolean item = ids && requested.startsWith(path + "/") && requested.indexOf('/', path.length() + 1) < 0;
+            if (!requested.equals(path) && !item) {
+                throw new HttpError(404, "Not found");
+            }
+            return handler.handle(routed);
+        }));
+    }
+
+    void start() {
+        server.start();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /** Whether requests run on virtual threads in this JVM. */
+    static boolean virtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService requestExecutor() {
+        try {
+            // Looked up reflectively so the build can keep targeting Java 17.
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threads = Integer.getInteger("notes.http.threads", 4 * Runtime.getRuntime().availableProcessors());
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "http");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private interface Handler {
+        String handle(HttpExchange exchange) throws IOException;
+    }
+
+    /** Thrown by handlers to answer with an error status. */
+    private static class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        long start = System.nanoTime();
+        int status = 200;
+        String body;
+        try {
+            body = handler.handle(exchange);
+            if (body == null) {
+                status = 204;
+            }
+        } catch (HttpError e) {
+            status = e.status;
+            body = error(e.getMessage());
+        } catch (ConcurrentModificationException e) {
+            status = 409;
+            body = error(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = error(e.getMessage());
+        } catch (Exception e) {
+            SERVER_ERRORS.increment();
+            e.printStackTrace();
+            status = 500;
+            body = error("Internal error");
+        }
+        try (exchange) {
+            if (body == null) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        } finally {
+            REQUEST.recordSince(start);
+        }
+    }
+
+    private String login(HttpExchange exchange) throws IOException {
+        requireMethod(exchange, "POST");
+        Map<String, String> request = readObject(exchange);
+        String email = required(request, "email");
+        String password = required(request, "password");
+        User user;
+        try {
+            user = userStore.hasher().submit(() -> {
+                try {
+                    return userStore.authenticate(email, password);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        if (user == null) {
+            throw new HttpError(401, "Invalid email or password");
+        }
+        return "{\"token\":" + Json.quote(sessions.open(user).token) + "}";
+    }
+
+    private String logout(HttpExchange exchange) {
+        requireMethod(exchange, "POST");
+        sessions.close(token(exchange));
+        return null;
+    }
+
+    private String notes(HttpExchange exchange) throws IOException {
+        SessionManager.Session session = authenticate(exchange);
+        String email = session.email;
+        String path = exchange.getRequestURI().getPath();
+        String id = path.length() > "/notes/".length() && path.startsWith("/notes/")
+                ? path.substring("/notes/".length()) : null;
+        String method = exchange.getRequestMethod();
+
+        if (id == null) {
+            if (method.equals("GET")) {
+                String query = queryParameter(exchange, "q");
+                String category = queryParameter(exchange, "category");
+                return noteList(query == null ? session.notes(category) : session.search(query, category));
+            }
+            requireMethod(exchange, "POST");
+            Map<String, String> request = readObject(exchange);
+            return note(noteStore.create(email, required(request, "title"), required(request, "content"),
+                    category(request)));
+        }
+
+        Note note = noteStore.get(email, id);
+        if (note == null) {
+            throw new HttpError(404, "No such note");
+        }
+        switch (method) {
+            case "GET":
+                return note(note);
+            case "PUT": {
+                Map<String, String> request = readObject(exchange);
+                long version;
+                try {
+                    version = Long.parseLong(required(request, "version"));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("version must be a number");
+                }
+                Note updated = noteStore.update(email, id, version, required(request, "title"), required(request, "content"),
+                        category(request));
+                if (updated == null) {
+                    throw new HttpError(404, "No such note");
+                }
+                return note(updated);
+            }
+            case "DELETE":
+                noteStore.delete(email, id);
+                return null;
+            default:
+                throw new HttpError(405, "Method not allowed");
+        }
+    }
+
+    private String categories(HttpExchange exchange) {
+        requireMethod(exchange, "GET");
+        StringBuilder out = new StringBuilder("{\"categories\":{");
+        authenticate(exchange).categories().forEach((category, count) -> {
+            if (out.charAt(out.length() - 1) != '{') {
+                out.append(',');
+            }
+            out.append(Json.quote(category)).append(':').append(count);
+        });
+        return out.append("}}").toString();
+    }
+
+    private SessionManager.Session authenticate(HttpExchange exchange) {
+        SessionManager.Session session = sessions.get(token(exchange));
+        if (session == null) {
+            throw new HttpError(401, "Login required");
+        }
+        return session;
+    }
+
+    private static String token(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") ? header.substring("Bearer ".length()).trim() : null;
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) {
+        if (!exchange.getRequestMethod().equals(method)) {
+            throw new HttpError(405, "Method not allowed");
+        }
+    }
+
+    private static Map<String, String> readObject(HttpExchange exchange) throws IOException {
+        byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+        if (body.length > MAX_BODY_BYTES) {
+            throw new HttpError(413, "Request body too large");
+        }
+        return Json.parseObject(new String(body, StandardCharsets.UTF_8));
+    }
+
+    private static String required(Map<String, String> request, String field) {
+        String value = request.get(field);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException(field + " is required");
+        }
+        return value;
+    }
+
+    private static String category(Map<String, String> request) {
+        String category = request.get("category");
+        return category == null || category.isBlank() ? "Personal" : category;
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            if (key.equals(name)) {
+                return eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static String noteList(List<Note> notes) {
+        StringBuilder out = new StringBuilder("{\"notes\":[");
+        for (int i = 0; i < notes.size(); i++) {
+            Note note = notes.get(i);
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append("{\"id\":").append(Json.quote(note.id))
+                    .append(",\"title\":").append(Json.quote(note.title))
+                    .append(",\"category\":").append(Json.quote(note.category))
+                    .append(",\"version\":").append(note.version).append('}');
+        }
+        return out.append("]}").toString();
+    }
+
+    private static String note(Note note) {
+        return "{\"id\":" + Json.quote(note.id)
+                + ",\"title\":" + Json.quote(note.title)
+                + ",\"content\":" + Json.quote(note.content())
+                + ",\"category\":" + Json.quote(note.category)
+                + ",\"version\":" + note.version + "}";
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + Json.quote(message) + "}";
+    }
+
+    /** Serves the store in the working directory: java NoteServer [port]. */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("notes.http.port", 8080);
+        UserStore userStore = new UserStore("users.txt");
+        NoteStore noteStore = new NoteStore("notes.db");
+        userStore.load();
+        noteStore.migrateLegacy(new File("notes.txt"), new File("notes.dat"), new File("users.txt"));
+        noteStore.open();
+
+        NoteServer server = new NoteServer(new InetSocketAddress(port), noteStore, userStore);
+        Metrics.gauge("store.notes", noteStore::size);
+        Metrics.gauge("store.segments", noteStore::loadedSegments);
+        Metrics.gauge("users", userStore::size);
+        Metrics.gauge("sessions", server.sessions::size);
+        Metrics.gauge("content.cacheBytes", ContentCache.SHARED::usedBytes);
+        Metrics.startReporting();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            try {
+                noteStore.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        server.start();
+        System.out.println("Serving notes in " + NoteStore.SEGMENTS + " segments on port " + server.port()
+                + (virtualThreads() ? " (virtual threads)" : ""));
+    }
+}
@@ -0,0 +1,262 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Versioned binary snapshot of the notes of one store segment, read through a memory-mapped buffer.
+ *
+ * Layout, all integers big-endian:
+ * <pre>
+ *   int   magic "NOTE"
+ *   int   version
+ *   int   count
+ *   long  offset[count]      absolute position of each record
+ *   int   dictionary length  (since version 3)
+ *   byte  dictionary[]       (since version 3) the {@link ContentCodec} dictionary
+ *   record[count]            long version (since version 2), then id, userEmail, title,
+ *                            category; each an int byte length followed by UTF-8 bytes; then
+ *                            byte content encoding (since version 3) and the content, also
+ *                            length-prefixed
+ * </pre>
+ * Content is stored last so the list metadata of a record can be decoded without touching it.
+ * Fields are length-prefixed, so titles and content may contain any character. Content encoding
+ * {@link #RAW} is UTF-8 and {@link #DEFLATED} is compressed with the snapshot's dictionary; writing
+ * trains the dictionary on a sample of the notes first.
+ */
+class NoteSnapshot implements Closeable {
+    static final int MAGIC = 0x4E4F5445;
+    static final int VERSION = 3;
+    static final byte RAW = 0;
+    static final byte DEFLATED = 1;
+    private static final int HEADER_BYTES = 12;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int formatVersion;
+    private final ContentCodec codec;
+
+    private NoteSnapshot(FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a note snapshot");
+        }
+        this.formatVersion = buffer.getInt(4);
+        if (formatVersion < 1 || formatVersion > VERSION) {
+            throw new IOException("Unsupported note snapshot version " + formatVersion);
+        }
+        this.count = buffer.getInt(8);
+        byte[] dictionary = new byte[0];
+        if (formatVersion >= 3) {
+            ByteBuffer header = buffer.duplicate();
+            header.position(HEADER_BYTES + 8 * count);
+            dictionary = new byte[header.getInt()];
+            header.get(dictionary);
+        }
+        this.codec = new ContentCodec(dictionary);
+    }
+
+    static NoteSnapshot open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Note snapshot too large to map: " + size + " bytes");
+            }
+            return new NoteSnapshot(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    /** Decodes the i-th note, including its content. */
+    Note read(int index) {
+        ByteBuffer record = record(index);
+        long version = formatVersion >= 2 ? record.getLong() : 0;
+        String id = readString(record);
+        String userEmail = readString(record);
+        String title = readString(record);
+        String category = readString(record);
+        Note note = new Note(id, title, readContent(record), category, userEmail);
+        note.version = version;
+        return note;
+    }
+
+    /** Decodes only the list metadata of the i-th note; its content is read from this snapshot on demand. */
+    Note readLazy(int index) {
+        ByteBuffer record = record(index);
+        long version = formatVersion >= 2 ? record.getLong() : 0;
+        String id = readString(record);
+        String userEmail = readString(record);
+        String title = readString(record);
+        Note note = Note.lazy(id, title, readString(record), userEmail, this, index);
+        note.version = version;
+        return note;
+    }
+
+    String readContent(int index) {
+        ByteBuffer record = record(index);
+        if (formatVersion >= 2) {
+            record.position(record.position() + 8);
+        }
+        for (int field = 0; field < 4; field++) {
+            record.position(record.position() + 4 + record.getInt(record.position()));
+        }
+        return readContent(record);
+    }
+
+    private String readContent(ByteBuffer record) {
+        if (formatVersion < 3 || record.get() == RAW) {
+            return readString(record);
+        }
+        byte[] packed = new byte[record.getInt()];
+        record.get(packed);
+        return codec.decompress(packed);
+    }
+
+    private ByteBuffer record(int index) {
+        ByteBuffer record = buffer.duplicate();
+        record.position((int) buffer.getLong(HEADER_BYTES + index * 8));
+        return record;
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Closes the file; the mapping stays readable until the last note referencing it is collected. */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Writes the notes as a new snapshot next to the target and atomically moves it into place. */
+    static void write(File file, List<Note> notes) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp);
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out))) {
+            byte[][] contents = new byte[notes.size()][];
+            for (int i = 0; i < notes.size(); i++) {
+                contents[i] = utf8(notes.get(i).readContent());
+            }
+            ContentCodec codec = new ContentCodec(ContentCodec.train(sample(contents), ContentCodec.DICTIONARY_BYTES));
+            byte[] dictionary = codec.dictionary();
+
+            byte[][][] encoded = new byte[notes.size()][][];
+            byte[] encodings = new byte[notes.size()];
+            long offset = HEADER_BYTES + 8L * notes.size() + 4 + dictionary.length;
+            long[] offsets = new long[notes.size()];
+            for (int i = 0; i < notes.size(); i++) {
+                Note note = notes.get(i);
+                byte[] packed = codec.compress(contents[i]);
+                encodings[i] = packed == null ? RAW : DEFLATED;
+                encoded[i] = new byte[][]{utf8(note.id), utf8(note.userEmail), utf8(note.title),
+                        utf8(note.category), packed == null ? contents[i] : packed};
+                contents[i] = null;
+                offsets[i] = offset;
+                offset += 8 + 1;
+                for (byte[] field : encoded[i]) {
+                    offset += 4 + field.length;
+                }
+            }
+
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(notes.size());
+            for (long recordOffset : offsets) {
+                data.writeLong(recordOffset);
+            }
+            data.writeInt(dictionary.length);
+            data.write(dictionary);
+            for (int i = 0; i < encoded.length; i++) {
+                data.writeLong(notes.get(i).version);
+                for (int field = 0; field < encoded[i].length; field++) {
+                    if (field == encoded[i].length - 1) {
+                        data.writeByte(encodings[i]);
+                    }
+                    data.writeInt(encoded[i][field].length);
+                    data.write(encoded[i][field]);
+                }
+            }
+            data.flush();
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Up to notes.compress.sampleBytes of contents to train on, spread evenly over all of them. */
+    private static List<byte[]> sample(byte[][] contents) {
+        long total = 0;
+        for (byte[] content : contents) {
+            total += content.length;
+        }
+        int stride = (int) Math.max(1, total / Math.max(1, ContentCodec.SAMPLE_BYTES));
+        List<byte[]> sample = new ArrayList<>();
+        for (int i = 0; i < contents.length; i += stride) {
+            sample.add(contents[i]);
+        }
+        return sample;
+    }
+
+    /**
+     * One-shot import of the older stores into a binary snapshot: the pipe-delimited notes.txt and
+     * the Java-serialized notes.dat. notes.dat predates per-user notes, so its entries get fresh ids
+     * and are assigned to the notes.migrate.owner system property, or else the first account in
+     * users.txt. The old files are left untouched.
+     */
+    static void migrate(File snapshot, File textFile, File serializedFile, File usersFile) throws IOException {
+        List<Note> imported = new ArrayList<>();
+        if (textFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(textFile))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\\|");
+                    if (parts.length == 5) {
+                        imported.add(new Note(parts[0], parts[1], parts[2], parts[3], parts[4]));
+                    }
+                }
+            }
+        }
+        if (serializedFile.exists()) {
+            String owner = System.getProperty("notes.migrate.owner", firstAccount(usersFile));
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(serializedFile)))) {
+                for (Object entry : (List<?>) in.readObject()) {
+                    Note legacy = (Note) entry;
+                    if (owner != null) {
+                        imported.add(new Note(UUID.randomUUID().toString(), legacy.title, legacy.content(),
+                                legacy.category, owner));
+                    }
+                }
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("Unreadable " + serializedFile, e);
+            }
+        }
+        write(snapshot, imported);
+    }
+
+    private static String firstAccount(File usersFile) throws IOException {
+        if (!usersFile.exists()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(usersFile))) {
+            String line = reader.readLine();
+            return line == null || line.indexOf(',') < 0 ? null : line.substring(0, line.indexOf(','));
+        }
+    }
+}
@@ -0,0 +1,406 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Headless note service, sharded by user behind a thread-safe API.
+ *
+ * Each user's notes live in one of {@value #SEGMENTS} {@link NoteSegment}s, picked by a hash of the
+ * email. A segment has its own snapshot, log, lock file and saved search index under
+ * notes.segments/, so users in different segments write to different files and never wait on each
+ * other's log lock or compaction. The count is fixed: changing it would move users between files.
+ *
+ * A segment is read into memory the first time one of its users is touched. Sessions hold it there
+ * with {@link #acquire}; once the last holder is released, a background thread saves its search
+ * index and drops it from the heap, so only the segments of active users take memory. Segments
+ * touched without being acquired, as by the command line tools, stay loaded until the store closes.
+ * Operations hold their segment's read lock and loading and eviction its write lock, so a segment
+ * is never closed under a running operation.
+ *
+ * Notes are addressed by owner and id. A store written before sharding, a single notes.db and
+ * notes.log, is split into segments by {@link #open}.
+ */
+class NoteStore implements Closeable {
+    static final int SEGMENTS = 64;
+    private static final Metrics.Counter SEGMENT_LOADS = Metrics.counter("store.segmentLoads");
+    private static final Metrics.Counter SEGMENT_EVICTIONS = Metrics.counter("store.segmentEvictions");
+
+    interface SegmentAction<T> {
+        T run(NoteSegment segment) throws IOException;
+    }
+
+    private final File snapshotFile;
+    private final File segmentDir;
+    private final Shard[] shards = new Shard[SEGMENTS];
+    // Shared by every segment, so change stamps keep increasing when a segment is loaded again.
+    private final AtomicLong stamps = new AtomicLong();
+    private final ExecutorService evictor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "note-segments");
+        t.setDaemon(true);
+        return t;
+    });
+
+    NoteStore(String snapshotPath) {
+        this.snapshotFile = new File(snapshotPath);
+        this.segmentDir = new File(snapshotPath.replaceFirst("\\.[^.\\/]*$", "") + ".segments");
+        for (int i = 0; i < SEGMENTS; i++) {
+            shards[i] = new Shard(new File(segmentDir, String.format(Locale.ROOT, "%02d.db", i)));
+        }
+    }
+
+    /** Imports the pre-snapshot stores if this store has never been written. */
+    void migrateLegacy(File textFile, File serializedFile, File usersFile) throws IOException {
+        if (!snapshotFile.exists() && !segmentDir.exists() && (textFile.exists() || serializedFile.exists())) {
+            NoteSnapshot.migrate(snapshotFile, textFile, serializedFile, usersFile);
+        }
+    }
+
+    /**
+     * Prepares the segment directory, splitting a store written before sharding into segments. No
+     * notes are loaded; each segment loads when one of its users is first touched.
+     */
+    void open() throws IOException {
+        Files.createDirectories(segmentDir.toPath());
+        if (snapshotFile.exists() || legacyFile(".log").exists()) {
+            split();
+        }
+    }
+
+    /**
+     * Loads the user's segment, or if it is in memory already, picks up changes other processes have
+     * written to it since the last commit.
+     */
+    void load(String email) throws IOException {
+        Shard shard = shard(email);
+        if (shard.segment == null) {
+            withSegment(email, segment -> null);
+        } else {
+            withSegment(email, segment -> {
+                segment.refresh();
+                return null;
+            });
+        }
+    }
+
+    /** Keeps the user's segment in memory until a matching {@link #release}; does not load it. */
+    void acquire(String email) {
+        shard(email).holders.incrementAndGet();
+    }
+
+    /** Drops a hold taken by {@link #acquire}; the last one evicts the segment in the background. */
+    void release(String email) {
+        Shard shard = shard(email);
+        if (shard.holders.decrementAndGet() == 0 && !evictor.isShutdown()) {
+            evictor.execute(() -> evict(shard));
+        }
+    }
+
+    Note create(String email, String title, String content, String category) throws IOException {
+        return withSegment(email, segment -> segment.create(email, title, content, category));
+    }
+
+    /**
+     * Stores a batch of notes for one user in a single commit, so bulk imports pay for the log lock
+     * and flush once per batch rather than per note. Each note keeps its id unless that id is taken
+     * by another user's note in the segment, in which case it gets a fresh one; notes the user
+     * already has are skipped. Returns how many were stored.
+     */
+    int createAll(String email, List<Note> batch) throws IOException {
+        return withSegment(email, segment -> segment.createAll(email, batch));
+    }
+
+    /**
+     * Replaces the fields of the user's note if it is still at the expected version; returns the
+     * updated note, or null if it no longer exists. Only changed fields are logged, and a save that
+     * changes nothing returns the current note without touching the log or the version.
+     *
+     * @throws ConcurrentModificationException if someone else saved the note after expectedVersion
+     */
+    Note update(String email, String id, long expectedVersion, String title, String content, String category)
+            throws IOException {
+        return withSegment(email, segment -> owned(segment.get(id), email) == null
+                ? null : segment.update(id, expectedVersion, title, content, category));
+    }
+
+    boolean delete(String email, String id) throws IOException {
+        return withSegment(email, segment -> owned(segment.get(id), email) != null && segment.delete(id));
+    }
+
+    /** The user's note with the id, or null if the user has none. */
+    Note get(String email, String id) {
+        return read(email, segment -> owned(segment.get(id), email));
+    }
+
+    /**
+     * The retained past versions of the user's note, newest first; empty if the user has no such
+     * note. Read from the segment's {@link NoteHistory} file on each call.
+     */
+    List<NoteHistory.Revision> history(String email, String id) throws IOException {
+        return withSegment(email, segment -> owned(segment.get(id), email) == null
+                ? List.of() : segment.history(id));
+    }
+
+    /** The user's note as it was at the version, or null if that version is no longer retained. */
+    Note revision(String email, String id, long version) throws IOException {
+        return withSegment(email, segment -> owned(segment.get(id), email) == null
+                ? null : segment.revision(id, version));
+    }
+
+    /** The user's notes in creation order. */
+    List<Note> list(String email) {
+        return read(email, segment -> segment.list(email));
+    }
+
+    /** The user's notes in the category, in the order they were filed under it; every note for null. */
+    List<Note> list(String email, String category) {
+        return read(email, segment -> segment.list(email, category));
+    }
+
+    /** The user's categories, sorted, with how many notes each holds. */
+    SortedMap<String, Integer> categories(String email) {
+        return read(email, segment -> segment.categories(email));
+    }
+
+    List<Note> search(String email, String query) {
+        return search(email, query, null);
+    }
+
+    /**
+     * The user's notes best matching the query, best first and at most notes.search.limit (default
+     * 50) of them; see {@link SearchIndex} for how terms match. A non-null category restricts the
+     * results to that category. A query without terms lists the category, or every note.
+     */
+    List<Note> search(String email, String query, String category) {
+        return read(email, segment -> segment.search(email, query, category));
+    }
+
+    /** How many notes the segments in memory hold. */
+    int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            NoteSegment segment = shard.segment;
+            size += segment == null ? 0 : segment.size();
+        }
+        return size;
+    }
+
+    /** How many segments are in memory. */
+    int loadedSegments() {
+        int loaded = 0;
+        for (Shard shard : shards) {
+            loaded += shard.segment == null ? 0 : 1;
+        }
+        return loaded;
+    }
+
+    /**
+     * A value that changes whenever the user's notes or their search index change. Read it before
+     * computing a result to cache, and the result is stale exactly when the stamp has moved on. While
+     * the user's segment is not in memory every call returns a new value.
+     */
+    long changeStamp(String email) {
+        NoteSegment segment = shard(email).segment;
+        return segment == null ? stamps.incrementAndGet() : segment.changeStamp(email);
+    }
+
+    private Shard shard(String email) {
+        return shards[Math.floorMod(email.hashCode(), SEGMENTS)];
+    }
+
+    private static Note owned(Note note, String email) {
+        return note != null && note.userEmail.equals(email) ? note : null;
+    }
+
+    /** Runs the action on the user's segment under its read lock, loading the segment first if needed. */
+    private <T> T withSegment(String email, SegmentAction<T> action) throws IOException {
+        Shard shard = shard(email);
+        ReentrantReadWriteLock.ReadLock readLock = shard.lock.readLock();
+        readLock.lock();
+        try {
+            NoteSegment segment = shard.segment;
+            if (segment == null) {
+                readLock.unlock();
+                shard.lock.writeLock().lock();
+                try {
+                    segment = shard.segment;
+                    if (segment == null) {
+                        segment = shard.load(stamps);
+                    }
+                } finally {
+                    // Downgrade, so the segment cannot be evicted before the action has run.
+                    readLock.lock();
+                    shard.lock.writeLock().unlock();
+                }
+            }
+            return action.run(segment);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private <T> T read(String email, Function<NoteSegment, T> reader) {
+        try {
+            return withSegment(email, reader::apply);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // On the evictor thread.
+    private void evict(Shard shard) {
+        shard.lock.writeLock().lock();
+        try {
+            if (shard.holders.get() == 0 && shard.segment != null) {
+                shard.close();
+                SEGMENT_EVICTIONS.increment();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    private File legacyFile(String extension) {
+        return new File(snapshotFile.getPath().replaceFirst("\\.[^.\\/]*$", "") + extension);
+    }
+
+    /**
+     * Moves every note of the unsharded store into its segment. Runs under the old store's lock, so
+     * a second process starting at the same time finds the old files gone and leaves the segments
+     * alone. The old snapshot is kept as notes.db.unsharded.
+     */
+    private void split() throws IOException {
+        Map<String, Note> all = new LinkedHashMap<>();
+        NoteLog.Replay collect = new NoteLog.Replay() {
+            @Override
+            public void upsert(Note note) {
+                all.put(note.id, note);
+            }
+
+            @Override
+            public void patch(String id, long version, int changed, String title, String content, String category) {
+                Note base = all.get(id);
+                if (base != null) {
+                    all.put(id, base.revise(version, changed, title, content, category));
+                }
+            }
+
+            @Override
+            public void delete(String id) {
+                all.remove(id);
+            }
+
+            @Override
+            public void reset() {
+                all.clear();
+            }
+        };
+        try (NoteLog legacy = new NoteLog(snapshotFile.getPath())) {
+            legacy.load(collect);
+            legacy.commit(collect, () -> {
+                if (snapshotFile.exists() || !all.isEmpty()) {
+                    List<List<Note>> segments = new ArrayList<>(SEGMENTS);
+                    for (int i = 0; i < SEGMENTS; i++) {
+                        segments.add(new ArrayList<>());
+                    }
+                    for (Note note : all.values()) {
+                        segments.get(Math.floorMod(note.userEmail.hashCode(), SEGMENTS)).add(note);
+                    }
+                    // Every segment is rewritten, so a split cut short by a crash is simply redone.
+                    for (int i = 0; i < SEGMENTS; i++) {
+                        shards[i].replace(segments.get(i));
+                    }
+                    if (snapshotFile.exists()) {
+                        Files.move(snapshotFile.toPath(), legacyFile(".db.unsharded").toPath(),
+                                StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                Files.deleteIfExists(legacyFile(".log").toPath());
+                Files.deleteIfExists(legacyFile(".log.1").toPath());
+                Files.deleteIfExists(legacyFile(".idx").toPath());
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        evictor.shutdown();
+        try {
+            evictor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IOException failure = null;
+        for (Shard shard : shards) {
+            shard.lock.writeLock().lock();
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** One segment's slot: its files, the segment while it is in memory, and who holds it there. */
+    private static class Shard {
+        final File snapshotFile;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final AtomicInteger holders = new AtomicInteger();
+        // Written under the write lock; read without it only for statistics and stamps.
+        volatile NoteSegment segment;
+
+        Shard(File snapshotFile) {
+            this.snapshotFile = snapshotFile;
+        }
+
+        // Under the write lock.
+        NoteSegment load(AtomicLong stamps) throws IOException {
+            NoteSegment loading = new NoteSegment(snapshotFile, stamps);
+            try {
+                loading.load();
+            } catch (IOException | RuntimeException e) {
+                try {
+                    loading.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+            SEGMENT_LOADS.increment();
+            segment = loading;
+            return loading;
+        }
+
+        // Under the write lock.
+        void close() throws IOException {
+            NoteSegment closing = segment;
+            segment = null;
+            if (closing != null) {
+                closing.close();
+            }
+        }
+
+        /** Makes the notes the segment's whole content; only while the segment is not in memory. */
+        void replace(List<Note> notes) throws IOException {
+            String base = snapshotFile.getPath().replaceFirst("\\.[^.\\/]*$", "");
+            NoteSnapshot.write(snapshotFile, notes);
+            for (String extension : new String[] {".log", ".log.1", ".idx"}) {
+                Files.deleteIfExists(Paths.get(base + extension));
+            }
+        }
+    }
+}
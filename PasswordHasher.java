@@ -0,0 +1,177 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Salted PBKDF2 password hashing with a tunable work factor.
+ *
+ * Hashes are stored as "pbkdf2$iterations$salt$hash" (Base64), so the cost can be raised later and
+ * older hashes are recognised and upgraded on the next successful login. Rows without the prefix
+ * are legacy plaintext passwords.
+ *
+ * Hashing is deliberately expensive, so it runs on a small fixed pool (notes.password.threads,
+ * default half the cores). A burst of logins queues there instead of saturating every core or the EDT.
+ *
+ * Repeated logins to the same account skip the derivation: after a successful check, a keyed
+ * HMAC-SHA256 of the password is remembered for the account and its stored hash, for up to
+ * notes.password.cacheSize accounts (default 1024, 0 disables it). The HMAC key is random per
+ * process and never stored. A different stored hash, as after a password change or rehash, misses
+ * the cache. A password that does not match the cached HMAC still pays the full derivation, so the
+ * cache never speeds up guessing.
+ *
+ * A damaged stored hash matches no password; each check against one counts in auth.malformedHashes.
+ */
+class PasswordHasher {
+    private static final String PREFIX = "pbkdf2$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final Metrics.Counter MALFORMED = Metrics.counter("auth.malformedHashes");
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+    private final ExecutorService pool;
+    // Verified against when the account does not exist, so unknown emails take as long as wrong passwords.
+    private final String dummyHash;
+    private final int cacheSize;
+    private final byte[] cacheKey = new byte[32];
+    // Account -> {stored hash, HMAC of the password}, least recently verified first.
+    private final Map<String, Object[]> verified = new LinkedHashMap<>(16, 0.75f, true);
+
+    PasswordHasher() {
+        this(Integer.getInteger("notes.password.iterations", 600_000),
+                Integer.getInteger("notes.password.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+    }
+
+    PasswordHasher(int iterations, int threads) {
+        this(iterations, threads, Integer.getInteger("notes.password.cacheSize", 1024));
+    }
+
+    PasswordHasher(int iterations, int threads, int cacheSize) {
+        this.iterations = iterations;
+        this.cacheSize = cacheSize;
+        random.nextBytes(cacheKey);
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "password-hasher");
+            t.setDaemon(true);
+            return t;
+        });
+        String zeros = Base64.getEncoder().encodeToString(new byte[HASH_BITS / 8]);
+        this.dummyHash = PREFIX + iterations + "$" + zeros + "$" + zeros;
+    }
+
+    String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder();
+        return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$"
+                + base64.encodeToString(derive(password, salt, iterations));
+    }
+
+    /** Like {@link #verify(String, String)}, answering from the cache for the account when it can. */
+    boolean verify(String account, String password, String stored) {
+        if (stored == null || cacheSize <= 0) {
+            return verify(password, stored);
+        }
+        byte[] mac = mac(password);
+        Object[] cached;
+        synchronized (verified) {
+            cached = verified.get(account);
+        }
+        if (cached != null && cached[0].equals(stored) && MessageDigest.isEqual((byte[]) cached[1], mac)) {
+            return true;
+        }
+        if (!verify(password, stored)) {
+            return false;
+        }
+        synchronized (verified) {
+            verified.put(account, new Object[] {stored, mac});
+            if (verified.size() > cacheSize) {
+                verified.remove(verified.keySet().iterator().next());
+            }
+        }
+        return true;
+    }
+
+    /** Drops what the cache holds for the account, as when its password changes. */
+    void forget(String account) {
+        synchronized (verified) {
+            verified.remove(account);
+        }
+    }
+
+    boolean verify(String password, String stored) {
+        if (stored == null) {
+            verify(password, dummyHash);
+            return false;
+        }
+        if (!stored.startsWith(PREFIX)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        try {
+            if (parts.length == 4) {
+                Base64.Decoder base64 = Base64.getDecoder();
+                byte[] expected = base64.decode(parts[3]);
+                return MessageDigest.isEqual(expected, derive(password, base64.decode(parts[2]), Integer.parseInt(parts[1])));
+            }
+        } catch (IllegalArgumentException e) {
+            // A bad number or Base64; the row is damaged and nothing can match it.
+        }
+        MALFORMED.increment();
+        return false;
+    }
+
+    /** True for legacy plaintext rows and hashes made with a lower work factor than the current one. */
+    boolean needsRehash(String stored) {
+        if (!stored.startsWith(PREFIX)) {
+            return true;
+        }
+        String[] parts = stored.split("\\$");
+        return parts.length != 4 || cost(parts[1]) < iterations;
+    }
+
+    private static int cost(String iterations) {
+        try {
+            return Integer.parseInt(iterations);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private byte[] mac(String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(cacheKey, "HmacSHA256"));
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+
+    /** Runs a hashing task on the bounded hasher pool. */
+    <T> CompletableFuture<T> submit(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, pool);
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " unavailable", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
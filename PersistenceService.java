@@ -0,0 +1,77 @@
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs all file I/O on a single background writer thread so the event dispatch thread never blocks on disk.
+ * Writes and reads run one at a time, in the order they were queued; coalescing rapid edits into
+ * fewer writes is up to the caller, as {@link Autosaver} does.
+ *
+ * Bulk transfers that can run for minutes get a thread of their own, so saves and autosaves are not
+ * stuck behind them.
+ */
+class PersistenceService {
+    private static final Metrics.Timer QUEUED = Metrics.timer("persistence.queued");
+    private static final Metrics.Timer TASK = Metrics.timer("persistence.task");
+
+    interface IOTask<T> {
+        T run() throws IOException;
+    }
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "persistence");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService transfers = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "transfer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Queues a read or write on the writer thread, after everything queued before it, and yields its result. */
+    <T> CompletableFuture<T> submit(IOTask<T> task) {
+        return run(writer, task);
+    }
+
+    /** Runs a long import or export on the transfer thread, one at a time. */
+    <T> CompletableFuture<T> transfer(IOTask<T> task) {
+        return run(transfers, task);
+    }
+
+    private static <T> CompletableFuture<T> run(ExecutorService executor, IOTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            QUEUED.record(start - submitted);
+            try {
+                future.complete(task.run());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                TASK.recordSince(start);
+            }
+        });
+        return future;
+    }
+
+    /** Delivers the outcome of a future to the event dispatch thread. */
+    static <T> void onEdt(CompletableFuture<T> future, Consumer<T> success, Consumer<Throwable> failure) {
+        future.whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            if (error == null) {
+                success.accept(result);
+            } else {
+                failure.accept(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            }
+        }));
+    }
+
+    /** Stops accepting work and waits for queued writes to reach disk. */
+    void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        transfers.shutdownNow();
+        writer.shutdown();
+        writer.awaitTermination(timeout, unit);
+    }
+}
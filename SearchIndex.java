@@ -0,0 +1,603 @@
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Ranked, typo-tolerant inverted index over note title, content and category, kept per user.
+ *
+ * Each user's index maps tokens to postings: parallel int arrays of note ordinals and term
+ * frequencies, where a title occurrence counts three times and a category occurrence twice. Matches
+ * are scored with BM25 and only the best few are kept, in a bounded heap, so the size of a result
+ * is set by the caller's limit rather than by how many notes match.
+ *
+ * A query term matches a token exactly, as a substring, or within one typo (two for terms of eight
+ * or more characters); weaker matches score lower, and every term must match. Candidate tokens come
+ * from a trigram index over the vocabulary of all users, which stores each word once however many
+ * users have it. Typo candidates must share all but three trigrams per allowed edit with the term
+ * before their edit distance is computed.
+ *
+ * Removing a note only marks its ordinal dead; a user's postings are rewritten once dead ordinals
+ * outnumber live ones, so an update costs the size of the note rather than of the postings.
+ *
+ * All access is synchronized so the background search worker can query while notes change.
+ * Notes are tokenized before taking the lock, so writers for different users only contend
+ * for the short posting-list update.
+ */
+class SearchIndex {
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int TITLE_WEIGHT = 3;
+    private static final int CATEGORY_WEIGHT = 2;
+    private static final int FILE_MAGIC = 0x4E494458; // "NIDX"
+    private static final int FILE_VERSION = 1;
+    private static final Metrics.Timer INDEX = Metrics.timer("search.index");
+    private static final Metrics.Timer QUERY = Metrics.timer("search.query");
+
+    private final Map<String, UserIndex> byUser = new HashMap<>();
+    private final Map<String, Term> vocabulary = new HashMap<>();
+    private final Map<String, Set<Term>> termsByTrigram = new HashMap<>();
+    // Per-ordinal scratch space for queries, reused across queries and users under the lock. Only the
+    // entries a query touches are written, and it resets those, so a query costs what it matches.
+    private float[] scores = new float[0];
+    private int[] matchedTerms = new int[0];
+    // The best score of the current term in each note, valid where termOf equals termStamp.
+    private float[] best = new float[0];
+    private int[] termOf = new int[0];
+    private int termStamp;
+
+    /** Indexes a note, replacing whatever was indexed for it before. */
+    void put(Note note) {
+        long start = System.nanoTime();
+        Map<String, Integer> frequencies = new HashMap<>();
+        int length = count(tokenize(note.title), TITLE_WEIGHT, frequencies)
+                + count(tokenize(note.content()), 1, frequencies)
+                + count(tokenize(note.category), CATEGORY_WEIGHT, frequencies);
+        synchronized (this) {
+            byUser.computeIfAbsent(note.userEmail, email -> new UserIndex()).add(note.id, frequencies, length);
+        }
+        INDEX.recordSince(start);
+    }
+
+    void remove(Note note) {
+        remove(note.userEmail, note.id);
+    }
+
+    synchronized void remove(String email, String id) {
+        UserIndex index = byUser.get(email);
+        if (index != null) {
+            index.remove(id);
+        }
+    }
+
+    synchronized void clear() {
+        byUser.clear();
+        vocabulary.clear();
+        termsByTrigram.clear();
+        scores = new float[0];
+        matchedTerms = new int[0];
+        best = new float[0];
+        termOf = new int[0];
+    }
+
+    /**
+     * Ids of the user's best-matching notes, best first and at most limit of them, or null if the
+     * query has no terms and every note matches. Only ids that pass the filter, if one is given,
+     * compete for the limit; it is asked only about notes that match every term.
+     */
+    synchronized List<String> search(String email, String query, int limit, Predicate<String> filter) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        if (terms.isEmpty()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        UserIndex index = byUser.get(email);
+        List<String> ranked = index == null ? Collections.emptyList() : index.search(terms, limit, filter);
+        QUERY.recordSince(start);
+        return ranked;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /** Saves the index with a stamp identifying the store state it describes; see {@link #read}. */
+    synchronized void write(File file, long[] stamp) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(stamp.length);
+            for (long value : stamp) {
+                out.writeLong(value);
+            }
+            out.writeInt(byUser.size());
+            for (Map.Entry<String, UserIndex> user : byUser.entrySet()) {
+                writeString(out, user.getKey());
+                user.getValue().write(out);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replaces the contents with a saved index, read in one piece, if the file exists and was saved
+     * with the same stamp. Returns whether it did; if not, the index is left unchanged.
+     *
+     * @throws IOException if the file is unreadable or truncated, leaving the index empty
+     */
+    synchronized boolean read(File file, long[] stamp) throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        try {
+            if (in.getInt() != FILE_MAGIC || in.getInt() != FILE_VERSION || in.getInt() != stamp.length) {
+                return false;
+            }
+            for (long value : stamp) {
+                if (in.getLong() != value) {
+                    return false;
+                }
+            }
+            clear();
+            int users = in.getInt();
+            for (int i = 0; i < users; i++) {
+                String email = readString(in);
+                UserIndex index = new UserIndex();
+                index.read(in);
+                byUser.put(email, index);
+            }
+            return true;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            clear();
+            throw new IOException("Truncated search index " + file, e);
+        }
+    }
+
+    // Length-prefixed rather than writeUTF, which cannot hold a token longer than 64 KB.
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarInt(in);
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    // Seven bits per byte, low first; posting gaps and frequencies are mostly a single byte.
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static int count(List<String> tokens, int weight, Map<String, Integer> frequencies) {
+        for (String token : tokens) {
+            frequencies.merge(token, weight, Integer::sum);
+        }
+        return tokens.size();
+    }
+
+    private Term acquire(String token) {
+        Term term = vocabulary.get(token);
+        if (term == null) {
+            Term added = new Term(token);
+            vocabulary.put(token, added);
+            for (String trigram : trigrams(token)) {
+                termsByTrigram.computeIfAbsent(trigram, t -> new HashSet<>()).add(added);
+            }
+            term = added;
+        }
+        term.users++;
+        return term;
+    }
+
+    private void release(Term term) {
+        if (--term.users > 0) {
+            return;
+        }
+        vocabulary.remove(term.text);
+        for (String trigram : trigrams(term.text)) {
+            Set<Term> terms = termsByTrigram.get(trigram);
+            terms.remove(term);
+            if (terms.isEmpty()) {
+                termsByTrigram.remove(trigram);
+            }
+        }
+    }
+
+    private static Set<String> trigrams(String token) {
+        Set<String> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= token.length(); i++) {
+            trigrams.add(token.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    /** Typos tolerated in a query term: none below four characters, two from eight. */
+    private static int maxEdits(String term) {
+        return term.length() < 4 ? 0 : term.length() < 8 ? 1 : 2;
+    }
+
+    /**
+     * The edit distance between a and b, counting a swap of adjacent letters as one edit, or max + 1
+     * as soon as it is known to exceed max.
+     */
+    static int editDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] beforePrevious = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(previous[j - 1] + cost, Math.min(previous[j], current[j - 1]) + 1);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    current[j] = Math.min(current[j], beforePrevious[j - 2] + 1);
+                }
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] recycled = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+
+    /** A vocabulary word and how many users' postings refer to it. */
+    private static class Term {
+        final String text;
+        int users;
+
+        Term(String text) {
+            this.text = text;
+        }
+    }
+
+    /** The ordinals of the notes containing a token, ascending, with the token's frequency in each. */
+    private static class Posting {
+        final Term term;
+        int[] docs = new int[2];
+        int[] frequencies = new int[2];
+        int size;
+
+        Posting(Term term) {
+            this.term = term;
+        }
+
+        void add(int doc, int frequency) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            docs[size] = doc;
+            frequencies[size++] = frequency;
+        }
+    }
+
+    private class UserIndex {
+        private final Map<String, Posting> postings = new HashMap<>();
+        private final Map<String, Integer> ordinals = new HashMap<>();
+        // By ordinal; null once the note has been removed or indexed again under a new ordinal.
+        private String[] ids = new String[16];
+        private int[] lengths = new int[16];
+        private int next;
+        private int live;
+        private long totalLength;
+
+        void add(String id, Map<String, Integer> frequencies, int length) {
+            remove(id);
+            if (next == ids.length) {
+                ids = Arrays.copyOf(ids, next * 2);
+                lengths = Arrays.copyOf(lengths, next * 2);
+            }
+            int doc = next++;
+            ids[doc] = id;
+            lengths[doc] = length;
+            ordinals.put(id, doc);
+            live++;
+            totalLength += length;
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                Posting posting = postings.get(entry.getKey());
+                if (posting == null) {
+                    posting = new Posting(acquire(entry.getKey()));
+                    postings.put(posting.term.text, posting);
+                }
+                posting.add(doc, entry.getValue());
+            }
+        }
+
+        void remove(String id) {
+            Integer doc = ordinals.remove(id);
+            if (doc == null) {
+                return;
+            }
+            ids[doc] = null;
+            live--;
+            totalLength -= lengths[doc];
+            int dead = next - live;
+            if (dead > 64 && dead > live) {
+                compact();
+            }
+        }
+
+        /** Drops dead ordinals from every posting and renumbers the live ones densely. */
+        private void compact() {
+            int[] renumbered = new int[next];
+            String[] liveIds = new String[Math.max(16, live * 2)];
+            int[] liveLengths = new int[liveIds.length];
+            int count = 0;
+            for (int doc = 0; doc < next; doc++) {
+                if (ids[doc] == null) {
+                    renumbered[doc] = -1;
+                    continue;
+                }
+                renumbered[doc] = count;
+                liveIds[count] = ids[doc];
+                liveLengths[count] = lengths[doc];
+                ordinals.put(ids[doc], count);
+                count++;
+            }
+            for (Iterator<Posting> it = postings.values().iterator(); it.hasNext(); ) {
+                Posting posting = it.next();
+                int kept = 0;
+                for (int i = 0; i < posting.size; i++) {
+                    int doc = renumbered[posting.docs[i]];
+                    if (doc >= 0) {
+                        posting.docs[kept] = doc;
+                        posting.frequencies[kept++] = posting.frequencies[i];
+                    }
+                }
+                posting.size = kept;
+                if (kept == 0) {
+                    it.remove();
+                    release(posting.term);
+                } else if (kept < posting.docs.length / 4) {
+                    posting.docs = Arrays.copyOf(posting.docs, kept * 2);
+                    posting.frequencies = Arrays.copyOf(posting.frequencies, kept * 2);
+                }
+            }
+            ids = liveIds;
+            lengths = liveLengths;
+            next = count;
+        }
+
+        List<String> search(Set<String> terms, int limit, Predicate<String> filter) {
+            if (scores.length < next) {
+                int capacity = Math.max(next, scores.length * 2);
+                scores = new float[capacity];
+                matchedTerms = new int[capacity];
+                best = new float[capacity];
+                termOf = new int[capacity];
+                termStamp = 0;
+            }
+            float[] scores = SearchIndex.this.scores;
+            int[] matchedTerms = SearchIndex.this.matchedTerms;
+            float[] best = SearchIndex.this.best;
+            int[] termOf = SearchIndex.this.termOf;
+            float averageLength = live == 0 ? 1 : (float) totalLength / live;
+            // Notes the first term matched: every full match is among them, and only they are written.
+            int[] candidates = null;
+            int candidateCount = 0;
+            int[] touched = new int[16];
+            int touchedCount = 0;
+            try {
+                int termNumber = 0;
+                for (String term : terms) {
+                    if (++termStamp == 0) {
+                        Arrays.fill(termOf, 0);
+                        termStamp = 1;
+                    }
+                    int stamp = termStamp;
+                    touchedCount = 0;
+                    for (Map.Entry<Posting, Float> match : expand(term).entrySet()) {
+                        Posting posting = match.getKey();
+                        int documents = 0;
+                        for (int i = 0; i < posting.size; i++) {
+                            if (ids[posting.docs[i]] != null) {
+                                documents++;
+                            }
+                        }
+                        float idf = (float) Math.log(1 + (live - documents + 0.5) / (documents + 0.5));
+                        float weight = match.getValue() * idf * (K1 + 1);
+                        for (int i = 0; i < posting.size; i++) {
+                            int doc = posting.docs[i];
+                            // Notes that missed an earlier term can no longer match.
+                            if (ids[doc] == null || matchedTerms[doc] != termNumber) {
+                                continue;
+                            }
+                            float tf = posting.frequencies[i];
+                            float score = weight * tf / (tf + K1 * (1 - B + B * lengths[doc] / averageLength));
+                            if (termOf[doc] != stamp) {
+                                termOf[doc] = stamp;
+                                best[doc] = score;
+                                if (touchedCount == touched.length) {
+                                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                                }
+                                touched[touchedCount++] = doc;
+                            } else if (score > best[doc]) {
+                                best[doc] = score;
+                            }
+                        }
+                    }
+                    if (candidates == null) {
+                        candidates = Arrays.copyOf(touched, touchedCount);
+                        candidateCount = touchedCount;
+                    }
+                    if (touchedCount == 0) {
+                        return Collections.emptyList();
+                    }
+                    for (int i = 0; i < touchedCount; i++) {
+                        scores[touched[i]] += best[touched[i]];
+                        matchedTerms[touched[i]]++;
+                    }
+                    termNumber++;
+                }
+
+                // Min-heap of the best notes so far, over the notes the last term matched, which are
+                // exactly the notes matching every term. Ties go by id, so a rebuilt index ranks the same way.
+                Comparator<Integer> byScore = (a, b) -> scores[a] != scores[b]
+                        ? Float.compare(scores[a], scores[b]) : ids[b].compareTo(ids[a]);
+                PriorityQueue<Integer> top = new PriorityQueue<>(Math.min(limit, 1024) + 1, byScore);
+                for (int i = 0; i < touchedCount; i++) {
+                    int doc = touched[i];
+                    if (filter != null && !filter.test(ids[doc])) {
+                        continue;
+                    }
+                    if (top.size() < limit) {
+                        top.add(doc);
+                    } else if (byScore.compare(doc, top.peek()) > 0) {
+                        top.poll();
+                        top.add(doc);
+                    }
+                }
+                String[] ranked = new String[top.size()];
+                for (int i = ranked.length - 1; i >= 0; i--) {
+                    ranked[i] = ids[top.poll()];
+                }
+                return Arrays.asList(ranked);
+            } finally {
+                for (int i = 0; i < candidateCount; i++) {
+                    scores[candidates[i]] = 0;
+                    matchedTerms[candidates[i]] = 0;
+                }
+            }
+        }
+
+        /** This user's postings for tokens matching the term, with the weight of each kind of match. */
+        private Map<Posting, Float> expand(String term) {
+            Map<Posting, Float> matches = new HashMap<>();
+            Posting exact = postings.get(term);
+            if (exact != null) {
+                matches.put(exact, 1.0f);
+            }
+            if (term.length() < 3) {
+                // Too short for trigrams; the vocabulary is still far smaller than the note text.
+                for (Posting posting : postings.values()) {
+                    if (posting != exact && posting.term.text.contains(term)) {
+                        matches.put(posting, posting.term.text.startsWith(term) ? 0.8f : 0.6f);
+                    }
+                }
+                return matches;
+            }
+            Set<String> grams = trigrams(term);
+            Map<Term, Integer> shared = new HashMap<>();
+            for (String gram : grams) {
+                for (Term candidate : termsByTrigram.getOrDefault(gram, Collections.emptySet())) {
+                    shared.merge(candidate, 1, Integer::sum);
+                }
+            }
+            int maxEdits = maxEdits(term);
+            int needed = Math.max(1, grams.size() - 3 * maxEdits);
+            for (Map.Entry<Term, Integer> candidate : shared.entrySet()) {
+                String token = candidate.getKey().text;
+                Posting posting = candidate.getValue() < needed ? null : postings.get(token);
+                if (posting == null || posting == exact) {
+                    continue;
+                }
+                if (candidate.getValue() == grams.size() && token.contains(term)) {
+                    matches.put(posting, token.startsWith(term) ? 0.8f : 0.6f);
+                } else if (maxEdits > 0) {
+                    int distance = editDistance(token, term, maxEdits);
+                    if (distance <= maxEdits) {
+                        matches.put(posting, distance == 1 ? 0.5f : 0.3f);
+                    }
+                }
+            }
+            return matches;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            if (next > live) {
+                compact();
+            }
+            writeVarInt(out, next);
+            for (int doc = 0; doc < next; doc++) {
+                writeString(out, ids[doc]);
+                writeVarInt(out, lengths[doc]);
+            }
+            writeVarInt(out, postings.size());
+            for (Posting posting : postings.values()) {
+                writeString(out, posting.term.text);
+                writeVarInt(out, posting.size);
+                for (int i = 0; i < posting.size; i++) {
+                    writeVarInt(out, posting.docs[i] - (i == 0 ? 0 : posting.docs[i - 1]));
+                    writeVarInt(out, posting.frequencies[i]);
+                }
+            }
+        }
+
+        void read(ByteBuffer in) {
+            next = readVarInt(in);
+            live = next;
+            ids = new String[Math.max(16, next)];
+            lengths = new int[ids.length];
+            for (int doc = 0; doc < next; doc++) {
+                ids[doc] = readString(in);
+                lengths[doc] = readVarInt(in);
+                ordinals.put(ids[doc], doc);
+                totalLength += lengths[doc];
+            }
+            int count = readVarInt(in);
+            for (int p = 0; p < count; p++) {
+                Posting posting = new Posting(acquire(readString(in)));
+                posting.size = readVarInt(in);
+                posting.docs = new int[Math.max(2, posting.size)];
+                posting.frequencies = new int[posting.docs.length];
+                for (int i = 0, doc = 0; i < posting.size; i++) {
+                    doc += readVarInt(in);
+                    posting.docs[i] = doc;
+                    posting.frequencies[i] = readVarInt(in);
+                }
+                postings.put(posting.term.text, posting);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Debounced background search for the search field.
+ *
+ * Keystrokes only restart a Swing timer. When the input has been quiet for the debounce delay,
+ * the query is prepared on the EDT, matched on a background worker, and the result is published
+ * back on the EDT in one piece. A newer query cancels the running one and stale results are dropped.
+ */
+class SearchPipeline {
+    private static final Metrics.Timer LATENCY = Metrics.timer("ui.search");
+
+    private final Timer debounce;
+    private final Supplier<Callable<List<Note>>> prepare;
+    private final Consumer<List<Note>> publish;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "search");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Only touched on the EDT.
+    private int generation;
+    private Future<?> running;
+
+    /**
+     * @param prepare called on the EDT when the debounce fires; captures the query and returns the
+     *                matching job to run in the background
+     * @param publish called on the EDT with the result of the latest query
+     */
+    SearchPipeline(int debounceMillis, Supplier<Callable<List<Note>>> prepare, Consumer<List<Note>> publish) {
+        this.prepare = prepare;
+        this.publish = publish;
+        this.debounce = new Timer(debounceMillis, e -> run());
+        this.debounce.setRepeats(false);
+    }
+
+    void queryChanged() {
+        debounce.restart();
+    }
+
+    /** Drops any pending or running query, e.g. on logout. */
+    void cancel() {
+        debounce.stop();
+        generation++;
+        if (running != null) {
+            running.cancel(true);
+            running = null;
+        }
+    }
+
+    private void run() {
+        cancel();
+        long start = System.nanoTime();
+        int current = generation;
+        Callable<List<Note>> job = prepare.get();
+        running = worker.submit(() -> {
+            List<Note> result = job.call();
+            if (!Thread.currentThread().isInterrupted()) {
+                SwingUtilities.invokeLater(() -> {
+                    if (current == generation) {
+                        running = null;
+                        publish.accept(result);
+                        LATENCY.recordSince(start);
+                    }
+                });
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,167 @@
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Logged-in sessions, keyed by opaque random tokens.
+ *
+ * A session remembers who it belongs to and caches the user's note list and their most recent
+ * searches and category listings, so repeated listings and searches skip re-filtering the store. Cached results are
+ * tagged with {@link NoteStore#changeStamp} and recomputed once any of the user's notes change.
+ *
+ * Sessions expire after notes.session.ttlMinutes (default 30) without use. At most
+ * notes.session.max (default 10000) are kept; beyond that the least recently used is dropped.
+ * Every live session holds its user's store segment in memory; see {@link NoteStore#acquire}.
+ */
+class SessionManager {
+    private static final int CACHED_SEARCHES = 16;
+
+    private final NoteStore noteStore;
+    private final long ttlMillis;
+    private final int maxSessions;
+    private final LongSupplier clock;
+    private final SecureRandom random = new SecureRandom();
+    // Access-ordered, so the eldest entry is always the least recently used session.
+    private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+
+    SessionManager(NoteStore noteStore) {
+        this(noteStore, Long.getLong("notes.session.ttlMinutes", 30) * 60_000,
+                Integer.getInteger("notes.session.max", 10_000), System::currentTimeMillis);
+    }
+
+    /** Takes the limits explicitly, and the clock sessions age by in milliseconds. */
+    SessionManager(NoteStore noteStore, long ttlMillis, int maxSessions, LongSupplier clock) {
+        this.noteStore = noteStore;
+        this.ttlMillis = ttlMillis;
+        this.maxSessions = maxSessions;
+        this.clock = clock;
+    }
+
+    /** Starts a session for an authenticated user and returns its token. */
+    synchronized Session open(User user) {
+        expire(clock.getAsLong());
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        Session session = new Session(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes), user.email);
+        sessions.put(session.token, session);
+        noteStore.acquire(session.email);
+        if (sessions.size() > maxSessions) {
+            Iterator<Session> eldest = sessions.values().iterator();
+            drop(eldest.next());
+            eldest.remove();
+        }
+        return session;
+    }
+
+    /** The live session for a token, or null if it is unknown or has expired. */
+    synchronized Session get(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        long now = clock.getAsLong();
+        if (now - session.lastUsed > ttlMillis) {
+            drop(sessions.remove(token));
+            return null;
+        }
+        session.lastUsed = now;
+        return session;
+    }
+
+    synchronized void close(String token) {
+        Session session = sessions.remove(token);
+        if (session != null) {
+            drop(session);
+        }
+    }
+
+    synchronized int size() {
+        return sessions.size();
+    }
+
+    // Expired sessions are always the least recently used, so they sit at the head of the map.
+    private void expire(long now) {
+        Iterator<Session> eldest = sessions.values().iterator();
+        while (eldest.hasNext()) {
+            Session session = eldest.next();
+            if (now - session.lastUsed <= ttlMillis) {
+                break;
+            }
+            drop(session);
+            eldest.remove();
+        }
+    }
+
+    private void drop(Session session) {
+        noteStore.release(session.email);
+    }
+
+    class Session {
+        final String token;
+        final String email;
+        private long lastUsed = clock.getAsLong();
+
+        private List<Note> notes;
+        private long notesStamp;
+        // Keyed by [query, category]; a null query is a plain category listing.
+        private final LinkedHashMap<List<String>, List<Note>> searches = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, List<Note>> eldest) {
+                return size() > CACHED_SEARCHES;
+            }
+        };
+        private long searchesStamp;
+
+        private Session(String token, String email) {
+            this.token = token;
+            this.email = email;
+        }
+
+        /** The user's notes in creation order. */
+        synchronized List<Note> notes() {
+            long stamp = noteStore.changeStamp(email);
+            if (notes == null || notesStamp != stamp) {
+                notes = Collections.unmodifiableList(noteStore.list(email));
+                notesStamp = stamp;
+            }
+            return notes;
+        }
+
+        /** The user's notes in the category, or all of them for null; see {@link NoteStore#list(String, String)}. */
+        synchronized List<Note> notes(String category) {
+            return category == null ? notes() : cached(null, category);
+        }
+
+        /**
+         * The user's best matches for the query, within the category unless it is null; see
+         * {@link NoteStore#search(String, String, String)}.
+         */
+        synchronized List<Note> search(String query, String category) {
+            return cached(query, category);
+        }
+
+        /** The user's categories with their note counts; cheap enough not to cache. */
+        SortedMap<String, Integer> categories() {
+            return noteStore.categories(email);
+        }
+
+        private List<Note> cached(String query, String category) {
+            long stamp = noteStore.changeStamp(email);
+            if (searchesStamp != stamp) {
+                searches.clear();
+                searchesStamp = stamp;
+            }
+            List<String> key = Arrays.asList(query, category);
+            List<Note> result = searches.get(key);
+            if (result == null) {
+                result = Collections.unmodifiableList(query == null
+                        ? noteStore.list(email, category) : noteStore.search(email, query, category));
+                searches.put(key, result);
+            }
+            return result;
+        }
+    }
+}
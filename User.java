@@ -0,0 +1,9 @@
+class User {
+    String email;
+    String password;
+
+    public User(String email, String password) {
+        this.email = email;
+        this.password = password;
+    }
+}
@@ -0,0 +1,65 @@
+import java.io.IOException;
+
+/**
+ * Headless account service over the {@link users} directory: registration and authentication,
+ * including hashing and persisting rows. All methods are thread-safe; register and authenticate
+ * are CPU-heavy and block the calling thread, so GUI callers run them through {@link #hasher()}.
+ */
+class UserStore {
+    private static final Metrics.Timer AUTHENTICATE = Metrics.timer("auth.authenticate");
+    private static final Metrics.Counter REJECTED = Metrics.counter("auth.rejected");
+
+    private final users directory;
+
+    UserStore(String path) {
+        this(new users(path));
+    }
+
+    UserStore(users directory) {
+        this.directory = directory;
+    }
+
+    PasswordHasher hasher() {
+        return directory.hasher();
+    }
+
+    void load() throws IOException {
+        directory.load();
+    }
+
+    boolean exists(String email) {
+        return directory.exists(email);
+    }
+
+    /** Creates an account; returns null if the email is already registered. */
+    User register(String email, String password) throws IOException {
+        User user = new User(email, directory.hasher().hash(password));
+        if (!directory.add(user)) {
+            return null;
+        }
+        directory.append(user);
+        return user;
+    }
+
+    /** Returns the account for valid credentials, persisting an upgraded hash if one was made; null otherwise. */
+    User authenticate(String email, String password) throws IOException {
+        long start = System.nanoTime();
+        try {
+            User[] rehashed = {null};
+            User user = directory.authenticate(email, password, upgraded -> rehashed[0] = upgraded);
+            if (rehashed[0] != null) {
+                directory.append(rehashed[0]);
+            }
+            if (user == null) {
+                REJECTED.increment();
+            }
+            return user;
+        } finally {
+            AUTHENTICATE.recordSince(start);
+        }
+    }
+
+    int size() {
+        return directory.size();
+    }
+}
@@ -0,0 +1,128 @@
+import bench.StoreDriver;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Default-package implementation of {@link StoreDriver}, so the benchmarks can reach the
+ * package-private stores.
+ *
+ * The synthetic data set gives the first tenth of all notes to one heavy user, which save and search
+ * target, and spreads the rest round-robin over the other accounts. Note text is drawn from a fixed
+ * vocabulary so the search index sees realistic token reuse. Every account shares one password hash,
+ * which keeps generating a million users cheap. The notes are written straight into the store's
+ * segments, and every load reads all of them with their search indexes rebuilt, as on a cold start.
+ */
+public class BenchmarkDriver implements StoreDriver {
+    static final String PASSWORD = "benchmark-password";
+    private static final String[] VOCABULARY = vocabulary(5000);
+    private static final String QUERY = "meeting budget";
+
+    private final Random random = new Random(42);
+    private NoteStore noteStore;
+    private UserStore userStore;
+    private String heavyUser;
+    private List<Note> heavyNotes;
+    private int userCount;
+    private int keystroke;
+
+    @Override
+    public void generate(Path dir, int notes, int users) throws IOException {
+        List<Note> generated = new ArrayList<>(notes);
+        int heavy = Math.max(1, notes / 10);
+        for (int i = 0; i < notes; i++) {
+            int owner = i < heavy || users == 1 ? 0 : 1 + i % (users - 1);
+            generated.add(new Note(UUID.randomUUID().toString(), words(3), words(20), "Work", email(owner)));
+        }
+        NoteSnapshot.write(dir.resolve("notes.db").toFile(), generated);
+        try (NoteStore store = new NoteStore(dir.resolve("notes.db").toString())) {
+            store.open();
+        }
+        Files.deleteIfExists(dir.resolve("notes.db.unsharded"));
+
+        String hash = new PasswordHasher().hash(PASSWORD);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(dir.resolve("users.txt").toFile()))) {
+            for (int i = 0; i < users; i++) {
+                writer.write(email(i) + "," + hash);
+                writer.newLine();
+            }
+        }
+    }
+
+    @Override
+    public void open(Path dir) throws IOException {
+        // Search indexes saved by the previous close would make the next load warm.
+        try (DirectoryStream<Path> saved = Files.newDirectoryStream(dir.resolve("notes.segments"), "*.idx")) {
+            for (Path index : saved) {
+                Files.delete(index);
+            }
+        }
+        noteStore = new NoteStore(dir.resolve("notes.db").toString());
+        userStore = new UserStore(dir.resolve("users.txt").toString());
+        heavyUser = email(0);
+    }
+
+    @Override
+    public void load() throws IOException {
+        userStore.load();
+        noteStore.open();
+        userCount = userStore.size();
+        // Segments load on first touch; touch users until every segment is in memory.
+        for (int user = 0; user < userCount && noteStore.loadedSegments() < NoteStore.SEGMENTS; user++) {
+            noteStore.list(email(user));
+        }
+        heavyNotes = noteStore.list(heavyUser);
+    }
+
+    @Override
+    public Object save() throws IOException {
+        Note note = noteStore.get(heavyUser, heavyNotes.get(random.nextInt(heavyNotes.size())).id);
+        return noteStore.update(heavyUser, note.id, note.version, note.title, words(20), note.category);
+    }
+
+    @Override
+    public Object searchKeystroke() {
+        keystroke = keystroke % QUERY.length() + 1;
+        return noteStore.search(heavyUser, QUERY.substring(0, keystroke));
+    }
+
+    @Override
+    public Object login() throws IOException {
+        return userStore.authenticate(email(random.nextInt(userCount)), PASSWORD);
+    }
+
+    @Override
+    public void close() throws IOException {
+        noteStore.close();
+    }
+
+    private String words(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+        }
+        return text.toString();
+    }
+
+    private static String email(int user) {
+        return "user" + user + "@example.com";
+    }
+
+    private static String[] vocabulary(int size) {
+        String[] common = {"meeting", "budget", "project", "review", "notes", "plan", "study", "todo"};
+        String[] words = new String[size];
+        System.arraycopy(common, 0, words, 0, common.length);
+        Random random = new Random(7);
+        for (int i = common.length; i < size; i++) {
+            char[] word = new char[4 + random.nextInt(6)];
+            for (int c = 0; c < word.length; c++) {
+                word[c] = (char) ('a' + random.nextInt(26));
+            }
+            words[i] = new String(word);
+        }
+        return words;
+    }
+}
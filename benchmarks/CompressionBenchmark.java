@@ -0,0 +1,123 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Disk and heap savings of note compression, and its CPU cost, per note size class.
+ *
+ * <pre>
+ * mvn test-compile exec:exec -Dbench.main=CompressionBenchmark -Dbench.args="--notes 2000"
+ * </pre>
+ * For each size class a set of notes is generated from meeting-log and code-snippet templates, the
+ * kind of repetitive text users paste, and written as a snapshot. The report shows the content size
+ * raw, deflated on its own and deflated with the snapshot's trained dictionary; then the snapshot
+ * file and the heap resident content takes after {@link Note#pack}, both as a share of the raw
+ * size. Times are per note with the dictionary, best of the rounds after a warmup pass.
+ */
+public class CompressionBenchmark {
+    private static final String[] PEOPLE = {"Alice", "Bob", "Chandra", "Dmitri", "Eve", "Farah", "Goran", "Hana"};
+    private static final String[] TOPICS = {"release plan", "budget review", "incident follow-up", "hiring",
+            "roadmap", "customer escalation", "migration", "security audit"};
+    private static final String[] STATEMENTS = {
+            "{p}: we agreed to move the {t} to next sprint, pending sign-off from finance.",
+            "{p}: action item - update the {t} document and share it in the channel by Friday.",
+            "{p}: blocked on the {t}; waiting for the vendor to confirm the contract terms.",
+            "if (response.status() == 503) {\n    retry(request, backoff.next()); // {t}\n}\n",
+            "for (Note note : store.list(email)) {\n    index.put(note.id, note.title); // {p}\n}\n",
+            "2026-03-{d} 09:{d}:12 INFO  [{p}] {t} job finished in {d} ms, 0 errors\n",
+    };
+
+    public static void main(String[] args) throws IOException {
+        Map<String, Integer> options = new HashMap<>(Map.of("notes", 2000, "rounds", 3));
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), Integer.parseInt(args[i + 1]));
+        }
+        Path dir = Files.createTempDirectory("note-compression");
+        try {
+            System.out.printf("%-8s %10s %10s %10s %9s %9s %9s %11s %11s%n", "size", "raw", "plain", "dict",
+                    "disk", "heap", "dict kB", "deflate us", "inflate us");
+            for (int size : new int[] {256, 4 * 1024, 64 * 1024}) {
+                run(dir, size, Math.max(50, options.get("notes") * 256 / size), options.get("rounds"));
+            }
+        } finally {
+            try (var paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void run(Path dir, int size, int count, int rounds) throws IOException {
+        Random random = new Random(size);
+        List<Note> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            notes.add(new Note(UUID.randomUUID().toString(), "Note " + i, text(random, size), "Work", "bench@example.com"));
+        }
+        byte[][] raw = new byte[count][];
+        long rawBytes = 0;
+        long plainBytes = 0;
+        for (int i = 0; i < count; i++) {
+            raw[i] = notes.get(i).content().getBytes(StandardCharsets.UTF_8);
+            rawBytes += raw[i].length;
+            byte[] plain = ContentCodec.PLAIN.compress(raw[i]);
+            plainBytes += plain == null ? raw[i].length : plain.length;
+        }
+
+        File file = dir.resolve(size + ".db").toFile();
+        NoteSnapshot.write(file, notes);
+        ContentCodec codec = new ContentCodec(ContentCodec.train(Arrays.asList(raw), ContentCodec.DICTIONARY_BYTES));
+        byte[][] packed = new byte[count][];
+        long dictBytes = 0;
+        for (int i = 0; i < count; i++) {
+            packed[i] = codec.compress(raw[i]);
+            dictBytes += packed[i] == null ? raw[i].length : packed[i].length;
+        }
+
+        // What Note.pack() keeps resident. Strings hold a byte per character here, as the text is Latin-1.
+        long packedHeap = 0;
+        for (byte[] content : raw) {
+            byte[] resident = content.length >= Note.PACK_MIN_CHARS ? ContentCodec.PLAIN.compress(content) : null;
+            packedHeap += resident == null ? content.length : resident.length;
+        }
+
+        long deflateNanos = Long.MAX_VALUE;
+        long inflateNanos = Long.MAX_VALUE;
+        for (int round = 0; round <= rounds; round++) {
+            long start = System.nanoTime();
+            for (byte[] content : raw) {
+                codec.compress(content);
+            }
+            long deflated = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (byte[] content : packed) {
+                if (content != null) {
+                    codec.decompress(content);
+                }
+            }
+            long inflated = System.nanoTime() - start;
+            // Round 0 warms up the JIT and the per-thread Deflater.
+            if (round > 0) {
+                deflateNanos = Math.min(deflateNanos, deflated);
+                inflateNanos = Math.min(inflateNanos, inflated);
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%-8s %10d %10d %10d %8.0f%% %8.0f%% %9d %11.2f %11.2f%n",
+                size >= 1024 ? size / 1024 + " kB" : size + " B", rawBytes, plainBytes, dictBytes,
+                100.0 * file.length() / rawBytes, 100.0 * packedHeap / rawBytes,
+                codec.dictionary().length / 1024, deflateNanos / 1e3 / count, inflateNanos / 1e3 / count);
+    }
+
+    private static String text(Random random, int size) {
+        StringBuilder out = new StringBuilder(size + 128);
+        while (out.length() < size) {
+            out.append(STATEMENTS[random.nextInt(STATEMENTS.length)]
+                    .replace("{p}", PEOPLE[random.nextInt(PEOPLE.length)])
+                    .replace("{t}", TOPICS[random.nextInt(TOPICS.length)])
+                    .replace("{d}", String.valueOf(10 + random.nextInt(50))))
+                    .append('\n');
+        }
+        return out.substring(0, size);
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.*;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.*;
+
+/**
+ * Closed-loop load test for {@link NoteServer}: starts an embedded server on a scratch store, logs
+ * every account in, then keeps a fixed number of connections busy with a mix of searches (70%),
+ * listings (20%) and creates (10%) and reports throughput and latency percentiles.
+ *
+ * <pre>
+ * mvn test-compile exec:exec -Dbench.main=LoadGenerator -Dbench.args="--connections 2000 --seconds 30"
+ * </pre>
+ * Options: --connections, --seconds, --warmup (seconds), --users, --notes (per user). Requests are
+ * sent asynchronously, so thousands of connections need no client threads, only file descriptors.
+ * The server-side {@link Metrics} are printed at the end, covering warmup as well.
+ * Passwords are hashed with 1000 iterations so setup stays quick; login cost is not what this measures.
+ */
+public class LoadGenerator {
+    private static final String[] WORDS = {"meeting", "budget", "travel", "groceries", "project", "review",
+            "deadline", "invoice", "holiday", "report", "design", "release", "workshop", "dentist", "garden"};
+
+    private final HttpClient client;
+    private final String base;
+    private final String[] tokens;
+    private final int connections;
+    private final AtomicLong errors = new AtomicLong();
+    private volatile boolean recording;
+    private volatile boolean running = true;
+    private final Samples[] samples;
+
+    private LoadGenerator(HttpClient client, String base, String[] tokens, int connections) {
+        this.client = client;
+        this.base = base;
+        this.tokens = tokens;
+        this.connections = connections;
+        this.samples = new Samples[connections];
+        Arrays.setAll(samples, i -> new Samples());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Integer> options = new HashMap<>(Map.of(
+                "connections", 1000, "seconds", 20, "warmup", 5, "users", 200, "notes", 50));
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), Integer.parseInt(args[i + 1]));
+        }
+        System.setProperty("notes.password.iterations", "1000");
+
+        Path dir = Files.createTempDirectory("note-load");
+        NoteStore noteStore = new NoteStore(dir.resolve("notes.db").toString());
+        UserStore userStore = new UserStore(dir.resolve("users.txt").toString());
+        noteStore.open();
+        int users = options.get("users");
+        Random random = new Random(42);
+        for (int u = 0; u < users; u++) {
+            userStore.register(email(u), "password");
+            for (int n = 0; n < options.get("notes"); n++) {
+                noteStore.create(email(u), sentence(random, 3), sentence(random, 30), "Work");
+            }
+        }
+
+        NoteServer server = new NoteServer(new InetSocketAddress("127.0.0.1", 0), noteStore, userStore);
+        server.start();
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        String base = "http://127.0.0.1:" + server.port();
+        String[] tokens = new String[users];
+        Pattern tokenField = Pattern.compile("\"token\":\"([^\"]+)\"");
+        for (int u = 0; u < users; u++) {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(base + "/login"))
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            "{\"email\":\"" + email(u) + "\",\"password\":\"password\"}")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Matcher matcher = tokenField.matcher(response.body());
+            if (!matcher.find()) {
+                throw new IllegalStateException("Login failed: " + response.body());
+            }
+            tokens[u] = matcher.group(1);
+        }
+
+        System.out.printf("%d users, %d notes, %d connections, %s%n", users, noteStore.size(),
+                options.get("connections"), NoteServer.virtualThreads() ? "virtual threads" : "platform thread pool");
+        LoadGenerator generator = new LoadGenerator(client, base, tokens, options.get("connections"));
+        try {
+            generator.run(options.get("warmup"), options.get("seconds"));
+            System.out.println();
+            System.out.print(Metrics.dump());
+        } finally {
+            server.close();
+            noteStore.close();
+            deleteRecursively(dir);
+        }
+    }
+
+    private void run(int warmupSeconds, int seconds) throws InterruptedException {
+        for (int c = 0; c < connections; c++) {
+            next(c, new Random(c));
+        }
+        Thread.sleep(warmupSeconds * 1000L);
+        recording = true;
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        recording = false;
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        running = false;
+
+        long[] latencies = Arrays.stream(samples).flatMapToLong(Samples::values).toArray();
+        Arrays.sort(latencies);
+        System.out.printf("requests %d, errors %d, throughput %.0f req/s%n",
+                latencies.length, errors.get(), latencies.length / elapsed);
+        System.out.printf("latency ms: p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), percentile(latencies, 1.0));
+    }
+
+    /** Sends one request for a connection and chains the next when it completes. */
+    private void next(int connection, Random random) {
+        if (!running) {
+            return;
+        }
+        String token = tokens[connection % tokens.length];
+        HttpRequest.Builder request;
+        int roll = random.nextInt(100);
+        if (roll < 70) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            request = HttpRequest.newBuilder(URI.create(base + "/notes?q=" + word.substring(0, 3 + random.nextInt(word.length() - 2))));
+        } else if (roll < 90) {
+            request = HttpRequest.newBuilder(URI.create(base + "/notes"));
+        } else {
+            request = HttpRequest.newBuilder(URI.create(base + "/notes")).POST(HttpRequest.BodyPublishers.ofString(
+                    "{\"title\":\"" + sentence(random, 3) + "\",\"content\":\"" + sentence(random, 30) + "\"}"));
+        }
+        long started = System.nanoTime();
+        client.sendAsync(request.header("Authorization", "Bearer " + token).build(),
+                HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            long latency = System.nanoTime() - started;
+            if (recording) {
+                if (error != null || response.statusCode() >= 400) {
+                    errors.incrementAndGet();
+                } else {
+                    samples[connection].add(latency);
+                }
+            }
+            next(connection, random);
+        });
+    }
+
+    /** Latencies of one connection; each has its own so recording never contends. */
+    private static class Samples {
+        private long[] values = new long[1024];
+        private int size;
+
+        synchronized void add(long latency) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = latency;
+        }
+
+        synchronized java.util.stream.LongStream values() {
+            return Arrays.stream(values, 0, size);
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static String email(int user) {
+        return "load" + user + "@example.com";
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            out.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return out.toString();
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/** Creates and deletes the temporary directories the benchmarks run against. */
+final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    static Path generate(StoreDriver driver, int notes, int users) throws IOException {
+        Path dir = Files.createTempDirectory("notes-bench");
+        driver.generate(dir, notes, users);
+        return dir;
+    }
+
+    static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Cold start: open the store and load every segment's snapshot and log into memory. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LoadBenchmark {
+    // About 5 kB of heap per note; a million notes needs -p notes=1000000 -jvmArgsAppend -Xmx8g.
+    @Param({"1000", "100000"})
+    int notes;
+
+    private StoreDriver driver;
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        driver = StoreDriver.create();
+        dir = BenchmarkData.generate(driver, notes, Math.max(10, notes / 100));
+    }
+
+    @Setup(Level.Invocation)
+    public void open() throws IOException {
+        driver.open(dir);
+    }
+
+    @Benchmark
+    public void coldLoad() throws IOException {
+        driver.load();
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() throws IOException {
+        driver.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        BenchmarkData.delete(dir);
+    }
+}
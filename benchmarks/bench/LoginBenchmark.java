@@ -0,0 +1,48 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Login against a directory of synthetic accounts. The hash cost comes from
+ * notes.password.iterations, which can be passed with -jvmArgsAppend. cacheSize 0 measures the full
+ * derivation on every login; otherwise repeat logins can be answered from the verification cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LoginBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    int users;
+
+    @Param({"0", "1024"})
+    String cacheSize;
+
+    private StoreDriver driver;
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        System.setProperty("notes.password.cacheSize", cacheSize);
+        driver = StoreDriver.create();
+        dir = BenchmarkData.generate(driver, 1000, users);
+        driver.open(dir);
+        driver.load();
+    }
+
+    @Benchmark
+    public Object login() throws IOException {
+        return driver.login();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        driver.close();
+        BenchmarkData.delete(dir);
+    }
+}
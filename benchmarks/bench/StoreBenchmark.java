@@ -0,0 +1,46 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Steady-state operations against a loaded store: single-note save and search-as-you-type. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class StoreBenchmark {
+    // About 5 kB of heap per note; a million notes needs -p notes=1000000 -jvmArgsAppend -Xmx8g.
+    @Param({"1000", "100000"})
+    int notes;
+
+    private StoreDriver driver;
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        driver = StoreDriver.create();
+        dir = BenchmarkData.generate(driver, notes, Math.max(10, notes / 100));
+        driver.open(dir);
+        driver.load();
+    }
+
+    @Benchmark
+    public Object saveNote() throws IOException {
+        return driver.save();
+    }
+
+    @Benchmark
+    public Object searchKeystroke() {
+        return driver.searchKeystroke();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        driver.close();
+        BenchmarkData.delete(dir);
+    }
+}
@@ -0,0 +1,41 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Bridge from the benchmarks to the application's stores.
+ *
+ * JMH refuses benchmarks in the default package, and classes in a named package cannot refer to the
+ * default package where the application lives. The benchmarks therefore talk to this interface, and
+ * the default-package BenchmarkDriver implements it on top of NoteStore and UserStore.
+ */
+public interface StoreDriver {
+    static StoreDriver create() {
+        try {
+            return (StoreDriver) Class.forName("BenchmarkDriver").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchmarkDriver not on the classpath", e);
+        }
+    }
+
+    /** Writes a synthetic note store and users.txt into dir. */
+    void generate(Path dir, int notes, int users) throws IOException;
+
+    /** Opens the stores in dir without loading them, discarding anything saved to speed up the next load. */
+    void open(Path dir) throws IOException;
+
+    /** Loads every user and note, as a cold start would. */
+    void load() throws IOException;
+
+    /** Updates one of the heavy user's notes. */
+    Object save() throws IOException;
+
+    /** Runs the next keystroke of a typed query for the heavy user. */
+    Object searchKeystroke();
+
+    /** Authenticates a random user with the correct password. */
+    Object login() throws IOException;
+
+    void close() throws IOException;
+}
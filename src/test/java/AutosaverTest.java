@@ -0,0 +1,81 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.SwingUtilities;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AutosaverTest {
+    private static final String EMAIL = "a@example.com";
+
+    @TempDir
+    Path dir;
+
+    private NoteStore store;
+    private PersistenceService persistence;
+    private Autosaver autosaver;
+    private final BlockingQueue<Throwable> failures = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void open() throws Exception {
+        // Only explicit saves in these tests; the timer never fires.
+        System.setProperty("notes.autosave.millis", "3600000");
+        store = NoteStoreTest.open(dir);
+        persistence = new PersistenceService();
+        SwingUtilities.invokeAndWait(() -> autosaver = new Autosaver(persistence, store,
+                () -> null, saved -> { }, failures::add, status -> { }));
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        SwingUtilities.invokeAndWait(() -> autosaver.stop());
+        persistence.shutdown(10, TimeUnit.SECONDS);
+        store.close();
+        System.clearProperty("notes.autosave.millis");
+    }
+
+    private Note save(String content) throws Exception {
+        AtomicReference<CompletableFuture<Note>> write = new AtomicReference<>();
+        SwingUtilities.invokeAndWait(() -> write.set(autosaver.save(new Autosaver.Draft("Title", content, "Work"))));
+        return write.get().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void consecutiveSavesBuildOnEachOther() throws Exception {
+        assertEquals(-1, autosaver.lastFlushMillis());
+        Note created = store.create(EMAIL, "Title", "First", "Work");
+        SwingUtilities.invokeAndWait(() -> autosaver.edit(created, () -> { }));
+
+        save("Second");
+        Note third = save("Third");
+        assertEquals(created.version + 2, third.version);
+        assertTrue(failures.isEmpty());
+        assertEquals(0, autosaver.pendingBytes());
+        assertTrue(autosaver.lastFlushMillis() >= 0);
+    }
+
+    @Test
+    void savingAgainAfterAConflictReplacesTheOtherChange() throws Exception {
+        Note created = store.create(EMAIL, "Title", "First", "Work");
+        SwingUtilities.invokeAndWait(() -> autosaver.edit(created, () -> { }));
+        try (NoteStore other = NoteStoreTest.open(dir)) {
+            other.load(EMAIL);
+            other.update(EMAIL, created.id, created.version, "Title", "Theirs", "Work");
+        }
+
+        ExecutionException conflict = assertThrows(ExecutionException.class, () -> save("Mine"));
+        assertInstanceOf(ConcurrentModificationException.class, conflict.getCause());
+        // The failure handler, which rebases the editor, has run once onFailed is called.
+        assertInstanceOf(ConcurrentModificationException.class, failures.poll(10, TimeUnit.SECONDS));
+
+        Note saved = save("Mine");
+        assertEquals("Mine", saved.content());
+        assertEquals(created.version + 2, saved.version);
+        assertTrue(failures.isEmpty());
+    }
+}
@@ -0,0 +1,53 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class JsonTest {
+    @Test
+    void quotesWhatMustBeEscaped() {
+        assertEquals("\"plain\"", Json.quote("plain"));
+        assertEquals("null", Json.quote(null));
+        assertEquals("\"a\\\"b\\\\c\\nd\\re\\tf\\u0001\"", Json.quote("a\"b\\c\nd\re\tf\u0001"));
+        assertEquals("\"ünïcödé ✓ 😀\"", Json.quote("ünïcödé ✓ 😀"));
+    }
+
+    @Test
+    void parsesWhatItQuotes() {
+        String[] values = {"", "plain", "quote \" and backslash \\", "lines\n\r\n", "tab\t", "\u0000\u001f", "ünï ✓ 😀", "/"};
+        for (String value : values) {
+            assertEquals(Map.of("k", value), Json.parseObject("{\"k\":" + Json.quote(value) + "}"), value);
+        }
+    }
+
+    @Test
+    void parsesFlatObjects() {
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("s", "x");
+        expected.put("n", "-12.5e3");
+        expected.put("t", "true");
+        expected.put("f", "false");
+        expected.put("z", null);
+        assertEquals(expected, Json.parseObject("{ \"s\" : \"x\", \"n\": -12.5e3,\"t\":true, \"f\":false, \"z\":null } "));
+        assertEquals(Map.of(), Json.parseObject("{}"));
+        assertEquals(Map.of("e", "é\b\f/"), Json.parseObject("{\"e\":\"\\u00E9\\b\\f\\/\"}"));
+    }
+
+    @Test
+    void rejectsUnicodeEscapesThatAreNotFourHexDigits() {
+        String[] escapes = {"\\u+0e9", "\\u-0e9", "\\u00g9", "\\u00e", "\\u", "\\u 0e9", "\\u１２３４"};
+        for (String escape : escapes) {
+            assertThrows(IllegalArgumentException.class, () -> Json.parseObject("{\"k\":\"" + escape + "\"}"), escape);
+        }
+    }
+
+    @Test
+    void rejectsMalformedInput() {
+        String[] inputs = {"", "[]", "{\"k\":\"v\"", "{\"k\" \"v\"}", "{\"k\":\"v\"} x", "{\"k\":{}}",
+                "{\"k\":nope}", "{\"k\":\"unterminated}", "{k:\"v\"}", "{\"k\":\"v\\"};
+        for (String input : inputs) {
+            assertThrows(IllegalArgumentException.class, () -> Json.parseObject(input), input);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NoteArchiveTest {
+    private static final String EMAIL = "a@example.com";
+    private static final NoteArchive.Progress CONTINUE = (records, fraction) -> true;
+
+    @TempDir
+    Path dir;
+
+    private NoteStore store;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = NoteStoreTest.open(dir.resolve("store"));
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        store.close();
+    }
+
+    /** Another account whose notes live in the same store segment as EMAIL, so ids can collide. */
+    private static String neighbour() {
+        for (int i = 0; ; i++) {
+            String email = "b" + i + "@example.com";
+            if (Math.floorMod(email.hashCode(), NoteStore.SEGMENTS) == Math.floorMod(EMAIL.hashCode(), NoteStore.SEGMENTS)) {
+                return email;
+            }
+        }
+    }
+
+    private List<Note> createSamples() throws IOException {
+        List<Note> created = new ArrayList<>();
+        created.add(store.create(EMAIL, "Plain", "just text", "Work"));
+        created.add(store.create(EMAIL, "Quotes \"and\" \\slashes\\", "line one\nline two\r\n\ttabbed \u0001", "Personal"));
+        created.add(store.create(EMAIL, "Grüße ✓", "ünïcödé 😀, commas; {braces} [brackets]", "Ideas"));
+        created.add(store.create(EMAIL, "Long", "a paragraph that repeats. ".repeat(500), "Work"));
+        Note edited = created.get(0);
+        created.set(0, store.update(EMAIL, edited.id, edited.version, "Plain, edited", "just text", "Work"));
+        return created;
+    }
+
+    private static Map<String, Note> byId(List<Note> notes) {
+        Map<String, Note> byId = new HashMap<>();
+        for (Note note : notes) {
+            byId.put(note.id, note);
+        }
+        return byId;
+    }
+
+    private static void assertSameFields(Note expected, Note actual) {
+        assertEquals(expected.title, actual.title);
+        assertEquals(expected.content(), actual.content());
+        assertEquals(expected.category, actual.category);
+    }
+
+    @Test
+    void roundTripsThroughAGzipArchive() throws IOException {
+        List<Note> created = createSamples();
+        File file = dir.resolve("notes.ndjson.gz").toFile();
+        List<Double> fractions = new ArrayList<>();
+        assertEquals(created.size(), NoteArchive.export(store, EMAIL, file, (records, fraction) -> fractions.add(fraction)));
+        assertEquals(List.of(1.0), fractions);
+
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+            in.lines().forEach(lines::add);
+        }
+        assertEquals(created.size(), lines.size());
+        assertTrue(lines.get(0).contains("\"version\":2"), lines.get(0));
+
+        try (NoteStore fresh = NoteStoreTest.open(Files.createDirectory(dir.resolve("fresh")))) {
+            assertEquals(created.size(), NoteArchive.importNotes(fresh, EMAIL, file, CONTINUE));
+            Map<String, Note> imported = byId(fresh.list(EMAIL));
+            assertEquals(byId(created).keySet(), imported.keySet());
+            for (Note note : created) {
+                assertSameFields(note, imported.get(note.id));
+                assertEquals(1, imported.get(note.id).version);
+            }
+        }
+    }
+
+    @Test
+    void reimportingSkipsNotesTheUserAlreadyHas() throws IOException {
+        List<Note> created = createSamples();
+        File file = dir.resolve("notes.ndjson").toFile();
+        NoteArchive.export(store, EMAIL, file, CONTINUE);
+
+        assertEquals(0, NoteArchive.importNotes(store, EMAIL, file, CONTINUE));
+        assertEquals(created.size(), store.list(EMAIL).size());
+    }
+
+    @Test
+    void givesFreshIdsWhereAnotherUserHasTheId() throws IOException {
+        List<Note> created = createSamples();
+        File file = dir.resolve("notes.ndjson").toFile();
+        NoteArchive.export(store, EMAIL, file, CONTINUE);
+        String other = neighbour();
+
+        assertEquals(created.size(), NoteArchive.importNotes(store, other, file, CONTINUE));
+        List<Note> theirs = store.list(other);
+        assertEquals(created.size(), theirs.size());
+        for (Note note : theirs) {
+            assertFalse(byId(created).containsKey(note.id), note.id);
+        }
+        // The original notes are untouched.
+        for (Note note : created) {
+            assertSameFields(note, store.get(EMAIL, note.id));
+        }
+    }
+
+    @Test
+    void importsNotesWithoutIdsAndDefaultsTheCategory() throws IOException {
+        File file = dir.resolve("hand-written.ndjson").toFile();
+        Files.writeString(file.toPath(), "{\"title\":\"One\",\"content\":\"first\"}\n\n"
+                + "{\"title\":\"Two\",\"content\":\"\\u00e9\",\"category\":null,\"extra\":true}\n");
+
+        assertEquals(2, NoteArchive.importNotes(store, EMAIL, file, CONTINUE));
+        List<Note> notes = store.list(EMAIL);
+        assertEquals(2, notes.size());
+        for (Note note : notes) {
+            assertEquals("Personal", note.category);
+            assertNotNull(note.id);
+        }
+        assertTrue(notes.stream().anyMatch(note -> note.content().equals("é")));
+    }
+
+    @Test
+    void rejectsAMalformedLineWithItsNumber() throws IOException {
+        File file = dir.resolve("bad.ndjson").toFile();
+        Files.writeString(file.toPath(), "{\"title\":\"One\",\"content\":\"first\"}\n{\"title\":\"Two\"}\n");
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> NoteArchive.importNotes(store, EMAIL, file, CONTINUE));
+        assertTrue(e.getMessage().startsWith("Line 2:"), e.getMessage());
+    }
+
+    @Test
+    void aCancelledExportLeavesNoArchiveBehind() throws IOException {
+        List<Note> batch = new ArrayList<>();
+        for (int i = 0; i < NoteArchive.BATCH_SIZE + 10; i++) {
+            batch.add(new Note(null, "Note " + i, "content " + i, "Work", null));
+        }
+        store.createAll(EMAIL, batch);
+        File file = dir.resolve("notes.ndjson.gz").toFile();
+
+        assertThrows(CancellationException.class, () -> NoteArchive.export(store, EMAIL, file, (records, fraction) -> false));
+        assertFalse(file.exists());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        // An earlier archive at the same path survives a cancelled export.
+        Files.writeString(file.toPath(), "earlier");
+        assertThrows(CancellationException.class, () -> NoteArchive.export(store, EMAIL, file, (records, fraction) -> false));
+        assertEquals("earlier", Files.readString(file.toPath()));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        assertEquals(batch.size(), NoteArchive.export(store, EMAIL, file, CONTINUE));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    void aCancelledImportKeepsTheBatchesAlreadyStored() throws IOException {
+        File file = dir.resolve("many.ndjson").toFile();
+        try (Writer out = Files.newBufferedWriter(file.toPath())) {
+            for (int i = 0; i < 2 * NoteArchive.BATCH_SIZE + 10; i++) {
+                out.write("{\"title\":\"Note " + i + "\",\"content\":\"content\"}\n");
+            }
+        }
+        assertEquals(NoteArchive.BATCH_SIZE, NoteArchive.importNotes(store, EMAIL, file, (records, fraction) -> false));
+        assertEquals(NoteArchive.BATCH_SIZE, store.list(EMAIL).size());
+    }
+}
@@ -0,0 +1,222 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Predicate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NoteHistoryTest {
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final Predicate<String> ALL = id -> true;
+
+    @TempDir
+    Path dir;
+
+    private File file() {
+        return dir.resolve("00.hist").toFile();
+    }
+
+    private NoteHistory history(int maxRevisions, long maxAgeMillis, long coalesceMillis, long compactBytes) {
+        return new NoteHistory(file(), maxRevisions, maxAgeMillis, coalesceMillis, compactBytes);
+    }
+
+    private static Note note(String id, long version, String content) {
+        Note note = new Note(id, "Title " + version, content, "Category " + version % 3, "a@example.com");
+        note.version = version;
+        return note;
+    }
+
+    /** Content of the version: lines are added, changed, removed and moved as versions go by. */
+    private static String content(String id, long version) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 30 + version % 7; i++) {
+            lines.add(id + " line " + i + (i % 5 == version % 5 ? " edited in " + version : "") + "\n");
+        }
+        Collections.rotate(lines, (int) (version % 4));
+        if (version % 6 == 0) {
+            lines.subList(3, 9).clear();
+        }
+        return String.join("", lines) + (version % 2 == 0 ? "no trailing newline" : "");
+    }
+
+    /** Saves versions from through to of the note, each replacing the one before, and returns the head. */
+    private static Note edit(NoteHistory history, String id, long from, long to, Predicate<String> live) throws IOException {
+        Note older = note(id, from, content(id, from));
+        for (long version = from + 1; version <= to; version++) {
+            Note newer = note(id, version, content(id, version));
+            history.record(older, newer, live);
+            older = newer;
+        }
+        return older;
+    }
+
+    private static void assertRevision(NoteHistory history, Note head, long version) throws IOException {
+        Note revision = history.revision(head, version);
+        assertNotNull(revision, "revision " + version);
+        assertEquals(content(head.id, version), revision.content(), "content of revision " + version);
+        assertEquals("Title " + version, revision.title);
+        assertEquals("Category " + version % 3, revision.category);
+        assertEquals(version, revision.version);
+    }
+
+    private static List<Long> versions(NoteHistory history, String id) throws IOException {
+        List<Long> versions = new ArrayList<>();
+        for (NoteHistory.Revision revision : history.revisions(id)) {
+            versions.add(revision.version);
+        }
+        return versions;
+    }
+
+    private static List<Long> range(long newest, long oldest) {
+        List<Long> versions = new ArrayList<>();
+        for (long version = newest; version >= oldest; version--) {
+            versions.add(version);
+        }
+        return versions;
+    }
+
+    @Test
+    void rebuildsEveryRevisionAcrossKeyframes() throws IOException {
+        Note head;
+        try (NoteHistory history = history(100, 365 * DAY, 0, 1L << 30)) {
+            head = edit(history, "a", 1, 60, ALL);
+            assertEquals(range(59, 1), versions(history, "a"));
+            for (long version = 1; version < 60; version++) {
+                assertRevision(history, head, version);
+            }
+        }
+        try (NoteHistory reopened = history(100, 365 * DAY, 0, 1L << 30)) {
+            for (long version = 1; version < 60; version++) {
+                assertRevision(reopened, head, version);
+            }
+        }
+    }
+
+    @Test
+    void keepsTheNewestRevisionsUpToTheLimit() throws IOException {
+        try (NoteHistory history = history(10, 365 * DAY, 0, 1L << 30)) {
+            Note head = edit(history, "a", 1, 40, ALL);
+            assertEquals(range(39, 30), versions(history, "a"));
+            assertNull(history.revision(head, 29));
+            for (long version = 30; version < 40; version++) {
+                assertRevision(history, head, version);
+            }
+        }
+    }
+
+    @Test
+    void expiresRevisionsPastTheMaximumAge() throws Exception {
+        try (NoteHistory history = history(100, 500, 0, 1L << 30)) {
+            edit(history, "a", 1, 4, ALL);
+            Thread.sleep(700);
+            Note head = edit(history, "a", 4, 6, ALL);
+            assertEquals(List.of(5L, 4L), versions(history, "a"));
+            assertNull(history.revision(head, 3));
+            assertRevision(history, head, 4);
+        }
+    }
+
+    @Test
+    void rewriteKeepsRetainedRevisionsOfLiveNotesOnly() throws IOException {
+        Set<String> live = new HashSet<>(List.of("a", "b", "c"));
+        Note a;
+        Note c;
+        try (NoteHistory history = history(5, 365 * DAY, 0, 16 * 1024)) {
+            edit(history, "b", 1, 20, live::contains);
+            live.remove("b");
+            a = note("a", 1, content("a", 1));
+            c = note("c", 1, content("c", 1));
+            long largest = 0;
+            for (int round = 0; round < 40; round++) {
+                a = edit(history, "a", a.version, a.version + 5, live::contains);
+                c = edit(history, "c", c.version, c.version + 5, live::contains);
+                largest = Math.max(largest, file().length());
+            }
+            assertTrue(file().length() < largest, "the history was never rewritten");
+            assertEquals(range(a.version - 1, a.version - 5), versions(history, "a"));
+            for (long version = a.version - 5; version < a.version; version++) {
+                assertRevision(history, a, version);
+                assertRevision(history, c, version);
+            }
+            assertEquals(List.of(), versions(history, "b"));
+        }
+        try (NoteHistory reopened = history(5, 365 * DAY, 0, 16 * 1024)) {
+            for (long version = a.version - 5; version < a.version; version++) {
+                assertRevision(reopened, a, version);
+            }
+            assertEquals(List.of(), versions(reopened, "b"));
+        }
+    }
+
+    @Test
+    void coalescesSavesWithinTheWindow() throws IOException {
+        try (NoteHistory history = history(100, 365 * DAY, 60_000, 1L << 30)) {
+            Note head = edit(history, "a", 1, 8, ALL);
+            // Each autosave replaced the previous one at once, so only the version before them remains.
+            assertEquals(List.of(1L), versions(history, "a"));
+            assertRevision(history, head, 1);
+        }
+    }
+
+    @Test
+    void droppedHistoryStaysGoneForANoteReusingTheId() throws IOException {
+        try (NoteHistory history = history(100, 365 * DAY, 0, 1L << 30)) {
+            edit(history, "a", 1, 10, ALL);
+            edit(history, "b", 1, 3, ALL);
+            history.drop("a");
+            assertEquals(List.of(), versions(history, "a"));
+
+            Note reused = edit(history, "a", 1, 3, ALL);
+            assertEquals(List.of(2L, 1L), versions(history, "a"));
+            assertRevision(history, reused, 1);
+        }
+        try (NoteHistory reopened = history(100, 365 * DAY, 0, 1L << 30)) {
+            assertEquals(List.of(2L, 1L), versions(reopened, "a"));
+            assertEquals(List.of(2L, 1L), versions(reopened, "b"));
+        }
+    }
+
+    @Test
+    void cutsOffATornRecordAndAppendsAfterTheLastIntactOne() throws IOException {
+        try (NoteHistory history = history(100, 365 * DAY, 0, 1L << 30)) {
+            edit(history, "a", 1, 5, ALL);
+        }
+        long intact = file().length();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file(), true))) {
+            out.writeInt(4096);
+            out.writeInt(0);
+            out.write(new byte[100]);
+        }
+
+        Note head;
+        try (NoteHistory history = history(100, 365 * DAY, 0, 1L << 30)) {
+            assertEquals(range(4, 1), versions(history, "a"));
+            assertEquals(intact, file().length());
+            head = edit(history, "a", 5, 8, ALL);
+        }
+        try (NoteHistory reopened = history(100, 365 * DAY, 0, 1L << 30)) {
+            assertEquals(range(7, 1), versions(reopened, "a"));
+            for (long version = 1; version < 8; version++) {
+                assertRevision(reopened, head, version);
+            }
+        }
+    }
+
+    @Test
+    void cutsOffAZeroFilledTail() throws IOException {
+        try (NoteHistory history = history(100, 365 * DAY, 0, 1L << 30)) {
+            edit(history, "a", 1, 5, ALL);
+        }
+        long intact = file().length();
+        try (FileOutputStream out = new FileOutputStream(file(), true)) {
+            out.write(new byte[64]);
+        }
+
+        try (NoteHistory history = history(100, 365 * DAY, 0, 1L << 30)) {
+            assertEquals(range(4, 1), versions(history, "a"));
+            assertEquals(intact, file().length());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class NoteListModelTest {
+    private final NoteListModel model = new NoteListModel();
+    // Each event as "type first-last", in the order fired.
+    private final List<String> events = new ArrayList<>();
+    private final Note[] notes = new Note[10];
+
+    @BeforeEach
+    void listen() {
+        for (int i = 0; i < notes.length; i++) {
+            notes[i] = new Note("n" + i, "Note " + i, "content", "Work", "a@example.com");
+        }
+        model.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                record("added", e);
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+                record("removed", e);
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+                record("changed", e);
+            }
+
+            private void record(String type, ListDataEvent e) {
+                events.add(type + " " + e.getIndex0() + "-" + e.getIndex1());
+            }
+        });
+    }
+
+    private void show(int... indexes) {
+        List<Note> shown = new ArrayList<>();
+        for (int index : indexes) {
+            shown.add(notes[index]);
+        }
+        model.replaceAll(shown);
+    }
+
+    private List<Note> rows() {
+        List<Note> rows = new ArrayList<>();
+        for (int i = 0; i < model.getSize(); i++) {
+            rows.add(model.getElementAt(i));
+        }
+        return rows;
+    }
+
+    private void assertRows(int... indexes) {
+        List<Note> expected = new ArrayList<>();
+        for (int index : indexes) {
+            expected.add(notes[index]);
+        }
+        assertEquals(expected, rows());
+    }
+
+    /** Shows before, forgets its events, shows after, and returns the events that fired. */
+    private List<String> eventsFor(int[] before, int... after) {
+        show(before);
+        events.clear();
+        show(after);
+        assertRows(after);
+        return events;
+    }
+
+    @Test
+    void firstListingIsOneAdd() {
+        show(0, 1, 2);
+        assertEquals(List.of("added 0-2"), events);
+        assertRows(0, 1, 2);
+    }
+
+    @Test
+    void theSameListingFiresNothing() {
+        assertEquals(List.of(), eventsFor(new int[] {0, 1, 2}, 0, 1, 2));
+    }
+
+    @Test
+    void oneChangedRowIsOneChange() {
+        assertEquals(List.of("changed 1-1"), eventsFor(new int[] {0, 1, 2}, 0, 5, 2));
+    }
+
+    @Test
+    void rowsAddedInTheMiddleAreOneAdd() {
+        assertEquals(List.of("added 1-2"), eventsFor(new int[] {0, 3}, 0, 1, 2, 3));
+    }
+
+    @Test
+    void rowsRemovedAtTheEndAreOneRemove() {
+        assertEquals(List.of("removed 2-3"), eventsFor(new int[] {0, 1, 2, 3}, 0, 1));
+    }
+
+    @Test
+    void rowsRemovedAtTheStartAreOneRemove() {
+        assertEquals(List.of("removed 0-1"), eventsFor(new int[] {0, 1, 2, 3}, 2, 3));
+    }
+
+    @Test
+    void aLongerDifferingMiddleIsAChangePlusAnAdd() {
+        assertEquals(List.of("changed 1-2", "added 3-4"), eventsFor(new int[] {0, 1, 2, 9}, 0, 5, 6, 7, 8, 9));
+    }
+
+    @Test
+    void aShorterDifferingMiddleIsAChangePlusARemove() {
+        assertEquals(List.of("changed 1-1", "removed 2-3"), eventsFor(new int[] {0, 1, 2, 3, 9}, 0, 5, 9));
+    }
+
+    @Test
+    void clearingIsOneRemove() {
+        show(0, 1, 2);
+        events.clear();
+        model.clear();
+        assertEquals(List.of("removed 0-2"), events);
+        assertEquals(0, model.getSize());
+    }
+
+    @Test
+    void updateReplacesOrRemovesOneRow() {
+        show(0, 1, 2);
+        events.clear();
+        Note renamed = new Note("n1", "Renamed", "content", "Work", "a@example.com");
+        model.update("n1", renamed);
+        assertEquals(List.of("changed 1-1"), events);
+        assertSame(renamed, model.getElementAt(1));
+
+        events.clear();
+        model.update("n0", null);
+        assertEquals(List.of("removed 0-0"), events);
+        assertEquals(List.of(renamed, notes[2]), rows());
+
+        events.clear();
+        model.update("missing", null);
+        assertEquals(List.of(), events);
+    }
+
+    @Test
+    void addAppendsOneRow() {
+        show(0, 1);
+        events.clear();
+        model.add(notes[7]);
+        assertEquals(List.of("added 2-2"), events);
+        assertRows(0, 1, 7);
+    }
+}
@@ -0,0 +1,192 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NoteLogTest {
+    @TempDir
+    Path dir;
+
+    /** Collects replayed records into a map by id, in the way a segment applies them. */
+    private static class Collect implements NoteLog.Replay {
+        final Map<String, Note> notes = new LinkedHashMap<>();
+
+        @Override
+        public void upsert(Note note) {
+            notes.put(note.id, note);
+        }
+
+        @Override
+        public void patch(String id, long version, int changed, String title, String content, String category) {
+            Note base = notes.get(id);
+            if (base != null) {
+                notes.put(id, base.revise(version, changed, title, content, category));
+            }
+        }
+
+        @Override
+        public void delete(String id) {
+            notes.remove(id);
+        }
+
+        @Override
+        public void reset() {
+            notes.clear();
+        }
+    }
+
+    private NoteLog open() {
+        return new NoteLog(dir.resolve("notes.db").toString(), NoteLog.SyncMode.NONE, 1L << 30, 50);
+    }
+
+    private static Note note(String id, long version, String title, String content) {
+        Note note = new Note(id, title, content, "Work", "a@example.com");
+        note.version = version;
+        return note;
+    }
+
+    @Test
+    void replaysUpsertsPatchesAndDeletesAfterReopen() throws IOException {
+        Collect state = new Collect();
+        try (NoteLog log = open()) {
+            log.load(state);
+            log.commit(state, () -> {
+                log.upsert(note("a", 1, "First", "one"));
+                log.upsert(note("b", 1, "Second", "two"));
+                log.patch(note("a", 2, "First, renamed", "one"), Note.TITLE);
+                log.patch(note("b", 2, "Second", "two, edited"), Note.CONTENT);
+                log.delete("b");
+                log.upsert(note("c", 1, "Grüße", "ünïcödé ✓"));
+                return null;
+            });
+        }
+
+        Collect replayed = new Collect();
+        try (NoteLog log = open()) {
+            log.load(replayed);
+        }
+        assertEquals(List.of("a", "c"), new ArrayList<>(replayed.notes.keySet()));
+        Note a = replayed.notes.get("a");
+        assertEquals("First, renamed", a.title);
+        assertEquals("one", a.content());
+        assertEquals(2, a.version);
+        assertEquals("ünïcödé ✓", replayed.notes.get("c").content());
+    }
+
+    /** Writes two notes, appends tail to the log, and checks a reload keeps both, cuts the tail off and appends after them. */
+    private void assertRecoversFrom(byte[] tail) throws IOException {
+        try (NoteLog log = open()) {
+            Collect state = new Collect();
+            log.load(state);
+            log.commit(state, () -> {
+                log.upsert(note("a", 1, "Kept", "intact"));
+                log.upsert(note("b", 1, "Also kept", "intact"));
+                return null;
+            });
+        }
+        File logFile = dir.resolve("notes.log").toFile();
+        long intact = logFile.length();
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write(tail);
+        }
+
+        Collect recovered = new Collect();
+        try (NoteLog log = open()) {
+            log.load(recovered);
+            assertEquals(Set.of("a", "b"), recovered.notes.keySet());
+            assertEquals(intact, logFile.length());
+            log.commit(recovered, () -> {
+                log.upsert(note("c", 1, "After the crash", "new"));
+                return null;
+            });
+        }
+        Collect reopened = new Collect();
+        try (NoteLog log = open()) {
+            log.load(reopened);
+        }
+        assertEquals(Set.of("a", "b", "c"), reopened.notes.keySet());
+    }
+
+    @Test
+    void dropsATornTailAndAppendsAfterTheLastIntactRecord() throws IOException {
+        // A crash in the middle of the next record: a header promising more bytes than follow.
+        ByteArrayOutputStream tail = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(tail);
+        out.writeInt(1000);
+        out.writeInt(12345);
+        out.write(new byte[10]);
+        assertRecoversFrom(tail.toByteArray());
+    }
+
+    @Test
+    void dropsAZeroFilledTail() throws IOException {
+        // Length 0 and checksum 0 pass the CRC check of an empty payload.
+        assertRecoversFrom(new byte[64]);
+    }
+
+    @Test
+    void dropsATailClaimingAHugeRecord() throws IOException {
+        ByteArrayOutputStream tail = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(tail);
+        out.writeInt(Integer.MAX_VALUE - 8);
+        out.writeInt(0);
+        out.write(new byte[32]);
+        assertRecoversFrom(tail.toByteArray());
+    }
+
+    @Test
+    void dropsARecordWhosePayloadIsMalformed() throws IOException {
+        // An intact frame around an upsert whose first field claims more bytes than the record holds.
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream fields = new DataOutputStream(payload);
+        fields.writeByte(NoteLog.UPSERT);
+        fields.writeInt(1000);
+        fields.write(new byte[10]);
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+        ByteArrayOutputStream tail = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(tail);
+        out.writeInt(payload.size());
+        out.writeInt((int) crc.getValue());
+        payload.writeTo(out);
+        assertRecoversFrom(tail.toByteArray());
+    }
+
+    @Test
+    void stopsAtACorruptRecord() throws IOException {
+        try (NoteLog log = open()) {
+            Collect state = new Collect();
+            log.load(state);
+            log.commit(state, () -> {
+                log.upsert(note("a", 1, "Kept", "intact"));
+                log.upsert(note("b", 1, "Damaged", "flipped"));
+                return null;
+            });
+        }
+        File logFile = dir.resolve("notes.log").toFile();
+        try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        }
+
+        Collect recovered = new Collect();
+        try (NoteLog log = open()) {
+            log.load(recovered);
+        }
+        assertEquals(Set.of("a"), recovered.notes.keySet());
+    }
+
+    @Test
+    void changesOutsideACommitAreRejected() throws IOException {
+        try (NoteLog log = open()) {
+            log.load(new Collect());
+            assertThrows(IllegalStateException.class, () -> log.upsert(note("a", 1, "t", "c")));
+        }
+    }
+}
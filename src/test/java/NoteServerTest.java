@@ -0,0 +1,110 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NoteServerTest {
+    @TempDir
+    Path dir;
+
+    private NoteStore noteStore;
+    private NoteServer server;
+    private String token;
+
+    @BeforeEach
+    void start() throws IOException {
+        noteStore = NoteStoreTest.open(dir);
+        UserStore userStore = new UserStore(new users(dir.resolve("users.txt").toString(), new PasswordHasher(1000, 1)));
+        userStore.register("a@example.com", "secret");
+        server = new NoteServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), noteStore, userStore);
+        server.start();
+        Response login = request("POST", "/login", "{\"email\":\"a@example.com\",\"password\":\"secret\"}");
+        assertEquals(200, login.status, login.body);
+        token = Json.parseObject(login.body).get("token");
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        server.close();
+        noteStore.close();
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private Response request(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http", InetAddress.getLoopbackAddress().getHostAddress(),
+                server.port(), path).openConnection();
+        connection.setRequestMethod(method);
+        if (token != null) {
+            connection.setRequestProperty("Authorization", "Bearer " + token);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        String text = in == null ? "" : new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        connection.disconnect();
+        return new Response(status, text);
+    }
+
+    @Test
+    void answersPathsThatOnlyShareAPrefixWithNotFound() throws IOException {
+        for (String path : new String[] {"/notesX", "/notes-foo", "/notes/a/b", "/loginX", "/logout/now",
+                "/categoriesX", "/categories/Work"}) {
+            Response response = request("GET", path, null);
+            assertEquals(404, response.status, path);
+            assertEquals("Not found", Json.parseObject(response.body).get("error"), path);
+        }
+    }
+
+    @Test
+    void servesTheNotesCollectionAndItems() throws IOException {
+        assertEquals(200, request("GET", "/notes", null).status);
+        assertEquals(200, request("GET", "/notes/", null).status);
+        assertEquals(200, request("GET", "/categories", null).status);
+
+        Response created = request("POST", "/notes", "{\"title\":\"Budget\",\"content\":\"numbers\",\"category\":\"Work\"}");
+        assertEquals(200, created.status, created.body);
+        Map<String, String> note = Json.parseObject(created.body);
+        String id = note.get("id");
+
+        Response fetched = request("GET", "/notes/" + id, null);
+        assertEquals(200, fetched.status);
+        assertEquals("numbers", Json.parseObject(fetched.body).get("content"));
+        assertTrue(request("GET", "/notes?q=budget", null).body.contains(id));
+        assertEquals(404, request("GET", "/notes/missing", null).status);
+
+        String update = "{\"version\":" + note.get("version") + ",\"title\":\"Budget\",\"content\":\"more\",\"category\":\"Work\"}";
+        assertEquals(200, request("PUT", "/notes/" + id, update).status);
+        assertEquals(409, request("PUT", "/notes/" + id, update.replace("more", "stale")).status);
+        assertEquals(204, request("DELETE", "/notes/" + id, null).status);
+        assertEquals(404, request("GET", "/notes/" + id, null).status);
+    }
+
+    @Test
+    void requiresASession() throws IOException {
+        token = null;
+        assertEquals(401, request("GET", "/notes", null).status);
+        token = "not-a-session";
+        assertEquals(401, request("GET", "/categories", null).status);
+    }
+}
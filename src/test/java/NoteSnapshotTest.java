@@ -0,0 +1,136 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NoteSnapshotTest {
+    @TempDir
+    Path dir;
+
+    private static List<Note> sampleNotes() {
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String content = i % 3 == 0
+                    ? "short " + i
+                    : ("Meeting notes for project " + i + ": agenda, action items, follow-ups.\n").repeat(20);
+            Note note = new Note("id-" + i, "Title " + i, content, i % 2 == 0 ? "Work" : "Personal",
+                    "user" + (i % 7) + "@example.com");
+            note.version = i + 1;
+            notes.add(note);
+        }
+        Note unicode = new Note("id-unicode", "Grüße, 日本語 ✓", "ünïcödé\nlines, commas; \"quotes\"\n\n",
+                "Ideas", "ü@example.com");
+        unicode.version = 42;
+        notes.add(unicode);
+        notes.add(new Note("id-empty", "", "", "", "empty@example.com"));
+        return notes;
+    }
+
+    private static void assertSameNote(Note expected, Note actual) {
+        assertEquals(expected.id, actual.id);
+        assertEquals(expected.title, actual.title);
+        assertEquals(expected.category, actual.category);
+        assertEquals(expected.userEmail, actual.userEmail);
+        assertEquals(expected.version, actual.version);
+        assertEquals(expected.content(), actual.content());
+    }
+
+    @Test
+    void roundTripsEveryField() throws IOException {
+        List<Note> notes = sampleNotes();
+        File file = dir.resolve("notes.db").toFile();
+        NoteSnapshot.write(file, notes);
+
+        try (NoteSnapshot snapshot = NoteSnapshot.open(file)) {
+            assertEquals(notes.size(), snapshot.size());
+            for (int i = 0; i < notes.size(); i++) {
+                assertSameNote(notes.get(i), snapshot.read(i));
+                assertEquals(notes.get(i).content(), snapshot.readContent(i));
+            }
+        }
+    }
+
+    @Test
+    void lazyNotesReadTheirContentAfterTheSnapshotIsClosed() throws IOException {
+        List<Note> notes = sampleNotes();
+        File file = dir.resolve("notes.db").toFile();
+        NoteSnapshot.write(file, notes);
+
+        List<Note> lazy = new ArrayList<>();
+        try (NoteSnapshot snapshot = NoteSnapshot.open(file)) {
+            for (int i = 0; i < snapshot.size(); i++) {
+                lazy.add(snapshot.readLazy(i));
+            }
+        }
+        for (int i = 0; i < notes.size(); i++) {
+            assertSameNote(notes.get(i), lazy.get(i));
+        }
+    }
+
+    @Test
+    void compressesRepetitiveContent() throws IOException {
+        List<Note> notes = sampleNotes();
+        long contentBytes = 0;
+        for (Note note : notes) {
+            contentBytes += note.content().getBytes(StandardCharsets.UTF_8).length;
+        }
+        File file = dir.resolve("notes.db").toFile();
+        NoteSnapshot.write(file, notes);
+        assertTrue(file.length() < contentBytes / 4, file.length() + " bytes for " + contentBytes + " bytes of content");
+    }
+
+    @Test
+    void readsVersionTwoSnapshots() throws IOException {
+        File file = dir.resolve("notes.db").toFile();
+        String[][] rows = {{"a", "a@example.com", "Old title", "Work", "old content"},
+                {"b", "b@example.com", "Другой", "Personal", "ещё"}};
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        long[] offsets = new long[rows.length];
+        int headerBytes = 12 + 8 * rows.length;
+        for (int i = 0; i < rows.length; i++) {
+            offsets[i] = headerBytes + out.size();
+            out.writeLong(i + 5);
+            for (String field : rows[i]) {
+                byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        try (DataOutputStream data = new DataOutputStream(new FileOutputStream(file))) {
+            data.writeInt(NoteSnapshot.MAGIC);
+            data.writeInt(2);
+            data.writeInt(rows.length);
+            for (long offset : offsets) {
+                data.writeLong(offset);
+            }
+            records.writeTo(data);
+        }
+
+        try (NoteSnapshot snapshot = NoteSnapshot.open(file)) {
+            assertEquals(2, snapshot.size());
+            Note b = snapshot.read(1);
+            assertEquals("b", b.id);
+            assertEquals("Другой", b.title);
+            assertEquals("Personal", b.category);
+            assertEquals("ещё", b.content());
+            assertEquals(6, b.version);
+            assertEquals("old content", snapshot.readLazy(0).content());
+        }
+    }
+
+    @Test
+    void rejectsUnknownVersions() throws IOException {
+        File file = dir.resolve("notes.db").toFile();
+        try (DataOutputStream data = new DataOutputStream(new FileOutputStream(file))) {
+            data.writeInt(NoteSnapshot.MAGIC);
+            data.writeInt(NoteSnapshot.VERSION + 1);
+            data.writeInt(0);
+        }
+        assertThrows(IOException.class, () -> NoteSnapshot.open(file).close());
+    }
+}
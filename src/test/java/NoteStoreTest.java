@@ -0,0 +1,81 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ConcurrentModificationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NoteStoreTest {
+    private static final String EMAIL = "a@example.com";
+
+    @TempDir
+    Path dir;
+
+    private NoteStore store;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = open(dir);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        store.close();
+    }
+
+    static NoteStore open(Path dir) throws IOException {
+        NoteStore store = new NoteStore(dir.resolve("notes.db").toString());
+        store.open();
+        return store;
+    }
+
+    @Test
+    void updatesBumpTheVersion() throws IOException {
+        Note created = store.create(EMAIL, "Title", "First", "Work");
+        Note updated = store.update(EMAIL, created.id, created.version, "Title", "Second", "Work");
+        assertEquals(created.version + 1, updated.version);
+        assertEquals("Second", store.get(EMAIL, created.id).content());
+    }
+
+    @Test
+    void rejectsAnUpdateBasedOnAStaleVersion() throws IOException {
+        Note created = store.create(EMAIL, "Title", "First", "Work");
+        store.update(EMAIL, created.id, created.version, "Title", "Second", "Work");
+
+        assertThrows(ConcurrentModificationException.class,
+                () -> store.update(EMAIL, created.id, created.version, "Title", "Lost update", "Work"));
+        Note stored = store.get(EMAIL, created.id);
+        assertEquals("Second", stored.content());
+        assertEquals(created.version + 1, stored.version);
+    }
+
+    @Test
+    void aStaleSaveThatChangesNothingIsNotAConflict() throws IOException {
+        Note created = store.create(EMAIL, "Title", "First", "Work");
+        Note updated = store.update(EMAIL, created.id, created.version, "Title", "Second", "Work");
+
+        Note same = store.update(EMAIL, created.id, created.version, "Title", "Second", "Work");
+        assertEquals(updated.version, same.version);
+    }
+
+    @Test
+    void detectsAChangeWrittenByAnotherProcess() throws IOException {
+        Note created = store.create(EMAIL, "Title", "First", "Work");
+        try (NoteStore other = open(dir)) {
+            other.load(EMAIL);
+            Note theirs = other.get(EMAIL, created.id);
+            other.update(EMAIL, theirs.id, theirs.version, "Title", "Theirs", "Work");
+        }
+
+        assertThrows(ConcurrentModificationException.class,
+                () -> store.update(EMAIL, created.id, created.version, "Title", "Mine", "Work"));
+        // The conflict caught this store up with the other change.
+        Note stored = store.get(EMAIL, created.id);
+        assertEquals("Theirs", stored.content());
+        assertEquals(created.version + 1, stored.version);
+        assertEquals("Mine", store.update(EMAIL, created.id, stored.version, "Title", "Mine", "Work").content());
+    }
+}
@@ -0,0 +1,130 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PasswordHasherTest {
+    private static final int ITERATIONS = 1000;
+
+    @TempDir
+    Path dir;
+
+    private final PasswordHasher hasher = new PasswordHasher(ITERATIONS, 1, 16);
+
+    @Test
+    void verifiesOnlyTheHashedPassword() {
+        String stored = hasher.hash("correct horse");
+        assertTrue(stored.startsWith("pbkdf2$" + ITERATIONS + "$"));
+        assertTrue(hasher.verify("correct horse", stored));
+        assertFalse(hasher.verify("correct horsE", stored));
+        assertFalse(hasher.verify("", stored));
+        // Salted, so the same password hashes differently each time.
+        assertNotEquals(stored, hasher.hash("correct horse"));
+    }
+
+    @Test
+    void unknownAccountsNeverVerify() {
+        assertFalse(hasher.verify("anything", null));
+        assertFalse(hasher.verify("a@example.com", "anything", null));
+    }
+
+    @Test
+    void acceptsLegacyPlaintextAndAsksForARehash() {
+        assertTrue(hasher.verify("secret", "secret"));
+        assertFalse(hasher.verify("Secret", "secret"));
+        assertTrue(hasher.needsRehash("secret"));
+    }
+
+    @Test
+    void asksForARehashBelowTheCurrentCost() {
+        String cheap = new PasswordHasher(ITERATIONS / 2, 1, 0).hash("pw");
+        assertTrue(hasher.verify("pw", cheap));
+        assertTrue(hasher.needsRehash(cheap));
+        assertFalse(hasher.needsRehash(hasher.hash("pw")));
+        assertFalse(new PasswordHasher(ITERATIONS / 2, 1, 0).needsRehash(hasher.hash("pw")));
+    }
+
+    @Test
+    void rejectsAndCountsMalformedHashes() {
+        Metrics.Counter malformed = Metrics.counter("auth.malformedHashes");
+        String good = hasher.hash("pw");
+        String[] parts = good.split("\\$");
+        List<String> damaged = new ArrayList<>();
+        damaged.add("pbkdf2$");
+        damaged.add("pbkdf2$" + ITERATIONS + "$" + parts[2]);
+        damaged.add("pbkdf2$many$" + parts[2] + "$" + parts[3]);
+        damaged.add("pbkdf2$" + ITERATIONS + "$not base64!$" + parts[3]);
+        damaged.add(good + "$extra");
+
+        for (String stored : damaged) {
+            long before = malformed.get();
+            assertFalse(hasher.verify("pw", stored), stored);
+            assertFalse(hasher.verify("a@example.com", "pw", stored), stored);
+            assertEquals(before + 2, malformed.get(), stored);
+        }
+    }
+
+    @Test
+    void answersRepeatedLoginsFromTheCache() {
+        // Costly enough that a derivation is plainly slower than a cache hit.
+        PasswordHasher slow = new PasswordHasher(200_000, 1, 16);
+        String stored = slow.hash("pw");
+
+        long start = System.nanoTime();
+        assertTrue(slow.verify("a@example.com", "pw", stored));
+        long miss = System.nanoTime() - start;
+        start = System.nanoTime();
+        assertTrue(slow.verify("a@example.com", "pw", stored));
+        long hit = System.nanoTime() - start;
+        assertTrue(hit * 10 < miss, "hit " + hit + " ns, miss " + miss + " ns");
+
+        // A wrong password, another account or another stored hash is checked in full.
+        assertFalse(slow.verify("a@example.com", "wrong", stored));
+        assertFalse(slow.verify("b@example.com", "wrong", stored));
+        assertFalse(slow.verify("a@example.com", "pw", slow.hash("other")));
+    }
+
+    @Test
+    void forgetsAnAccountAndStaysCorrectWithoutACache() {
+        String stored = hasher.hash("pw");
+        assertTrue(hasher.verify("a@example.com", "pw", stored));
+        hasher.forget("a@example.com");
+        assertTrue(hasher.verify("a@example.com", "pw", stored));
+        assertFalse(hasher.verify("a@example.com", "nope", stored));
+
+        PasswordHasher uncached = new PasswordHasher(ITERATIONS, 1, 0);
+        assertTrue(uncached.verify("a@example.com", "pw", stored));
+        assertTrue(uncached.verify("a@example.com", "pw", stored));
+        assertFalse(uncached.verify("a@example.com", "nope", stored));
+    }
+
+    @Test
+    void rehashesWeakPasswordsOnLogin() throws IOException {
+        users accounts = new users(dir.resolve("users.txt").toString(), hasher);
+        accounts.add(new User("Legacy@Example.com", "plain"));
+        accounts.add(new User("cheap@example.com", new PasswordHasher(ITERATIONS / 2, 1, 0).hash("pw")));
+        accounts.add(new User("current@example.com", hasher.hash("pw")));
+        List<User> rehashed = new ArrayList<>();
+
+        User legacy = accounts.authenticate("legacy@example.com", "plain", rehashed::add);
+        assertNotNull(legacy);
+        assertFalse(hasher.needsRehash(legacy.password));
+        assertEquals(List.of(legacy), rehashed);
+        assertSame(legacy, accounts.get("legacy@example.com"));
+        assertSame(legacy, accounts.authenticate("legacy@example.com", "plain", rehashed::add));
+
+        User cheap = accounts.authenticate("cheap@example.com", "pw", rehashed::add);
+        assertFalse(hasher.needsRehash(cheap.password));
+        assertEquals(List.of(legacy, cheap), rehashed);
+
+        assertNotNull(accounts.authenticate("current@example.com", "pw", rehashed::add));
+        assertEquals(2, rehashed.size());
+
+        assertNull(accounts.authenticate("legacy@example.com", "wrong", rehashed::add));
+        assertNull(accounts.authenticate("nobody@example.com", "plain", rehashed::add));
+    }
+}
@@ -0,0 +1,206 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SearchIndexTest {
+    private static final String EMAIL = "a@example.com";
+
+    @TempDir
+    Path dir;
+
+    private final SearchIndex index = new SearchIndex();
+
+    private Note put(String id, String title, String content, String category) {
+        return put(EMAIL, id, title, content, category);
+    }
+
+    private Note put(String email, String id, String title, String content, String category) {
+        Note note = new Note(id, title, content, category, email);
+        index.put(note);
+        return note;
+    }
+
+    private List<String> search(String query) {
+        return index.search(EMAIL, query, 50, null);
+    }
+
+    @Test
+    void ranksTitleAboveCategoryAboveContent() {
+        put("content", "Groceries", "remember the budget for this week", "Home");
+        put("title", "Budget review", "numbers for the quarter", "Work");
+        put("category", "Quarterly plan", "numbers and goals", "Budget");
+        assertEquals(List.of("title", "category", "content"), search("budget"));
+    }
+
+    @Test
+    void ranksRareTermsAndRepeatedOccurrencesHigher() {
+        put("once", "Notes", "project alpha kickoff and some other words here", "Work");
+        put("thrice", "Notes", "project alpha alpha alpha kickoff", "Work");
+        for (int i = 0; i < 20; i++) {
+            put("filler" + i, "Notes", "project status " + i, "Work");
+        }
+        assertEquals(List.of("thrice", "once"), search("alpha"));
+        // Every note has "project", so "alpha" decides the order among the notes with both.
+        assertEquals(List.of("thrice", "once"), search("project alpha"));
+    }
+
+    @Test
+    void requiresEveryTerm() {
+        put("both", "Trip", "paris hotel booking", "Travel");
+        put("one", "Trip", "paris museum", "Travel");
+        assertEquals(List.of("both"), search("paris hotel"));
+        assertEquals(List.of(), search("paris zeppelin"));
+        assertNull(search("  ,; "));
+    }
+
+    @Test
+    void keepsOnlyTheBestUpToTheLimitInRankOrder() {
+        for (int i = 0; i < 300; i++) {
+            // Note i mentions the term i % 10 + 1 times, in a note of the same length.
+            String content = "keyword ".repeat(i % 10 + 1) + "pad ".repeat(10 - i % 10);
+            put(String.format("n%03d", i), "Note", content, "Misc");
+        }
+        List<String> all = index.search(EMAIL, "keyword", 1000, null);
+        assertEquals(300, all.size());
+        List<String> top = index.search(EMAIL, "keyword", 7, null);
+        assertEquals(all.subList(0, 7), top);
+        // The 30 notes with the most mentions tie, and ties go by id.
+        assertEquals(List.of("n009", "n019", "n029", "n039", "n049", "n059", "n069"), top);
+
+        List<String> filtered = index.search(EMAIL, "keyword", 3, id -> id.endsWith("5"));
+        assertEquals(List.of("n005", "n015", "n025"), filtered);
+    }
+
+    @Test
+    void matchesPrefixesAndSubstringsBelowExactWords() {
+        put("exact", "Meet", "meet at noon", "Work");
+        put("prefix", "Meeting", "meeting at noon", "Work");
+        put("substring", "Teammeet", "teammeet at noon", "Work");
+        assertEquals(List.of("exact", "prefix", "substring"), search("meet"));
+        // Terms too short for trigrams still match prefixes.
+        assertTrue(search("me").containsAll(List.of("exact", "prefix")));
+    }
+
+    @Test
+    void toleratesTyposByTermLength() {
+        put("meeting", "Meeting", "weekly sync", "Work");
+        put("documentation", "Documentation", "how the service works", "Work");
+        put("cat", "Cat", "feed the cat", "Home");
+
+        assertEquals(List.of("meeting"), search("meetng"));
+        // An adjacent swap is one edit.
+        assertEquals(List.of("meeting"), search("meetnig"));
+        assertEquals(List.of(), search("mxxting"));
+        // Eight letters or more allow two edits.
+        assertEquals(List.of("documentation"), search("dokumentaton"));
+        // Below four letters, none.
+        assertEquals(List.of(), search("cta"));
+    }
+
+    @Test
+    void ranksExactMatchesAboveTypos() {
+        put("typo", "Weekly meting", "agenda", "Work");
+        put("exact", "Weekly meeting", "agenda", "Work");
+        assertEquals(List.of("exact", "typo"), search("meeting"));
+    }
+
+    @Test
+    void keepsUsersApart() {
+        put("mine", "Budget", "numbers", "Work");
+        put("b@example.com", "theirs", "Budget", "numbers", "Work");
+        assertEquals(List.of("mine"), search("budget"));
+        assertEquals(List.of("theirs"), index.search("b@example.com", "budget", 50, null));
+    }
+
+    @Test
+    void forgetsRemovedNotesAcrossCompaction() {
+        for (int i = 0; i < 300; i++) {
+            put("n" + i, "Note " + i, (i % 2 == 0 ? "even " : "odd ") + "shared word" + i, "Misc");
+        }
+        // Enough removals that dead ordinals outnumber live ones and the postings are rewritten.
+        for (int i = 0; i < 250; i++) {
+            index.remove(EMAIL, "n" + i);
+        }
+        Set<String> expected = new HashSet<>();
+        for (int i = 250; i < 300; i++) {
+            expected.add("n" + i);
+        }
+        assertEquals(expected, new HashSet<>(search("shared")));
+        // word250 and the like are one typo from word260, so they match too, but below it.
+        assertEquals("n260", search("word260").get(0));
+        assertEquals(List.of(), search("word10"));
+
+        // Updating a note replaces what was indexed for it.
+        put("n260", "Note 260", "rewritten", "Misc");
+        assertFalse(search("word260").contains("n260"));
+        assertEquals(List.of("n260"), search("rewritten"));
+        put("n10", "Back again", "word10", "Misc");
+        assertEquals(List.of("n10"), search("word10"));
+    }
+
+    @Test
+    void readsASavedIndexOnlyWithTheSameStamp() throws IOException {
+        put("a", "Budget review", "numbers", "Work");
+        put("b", "Groceries", "budget for the week", "Home");
+        index.remove(EMAIL, "b");
+        put("c", "Meeting", "budget numbers", "Work");
+        File file = dir.resolve("00.idx").toFile();
+        long[] stamp = {1, 2, 3};
+        index.write(file, stamp);
+
+        SearchIndex stale = new SearchIndex();
+        stale.put(new Note("x", "Untouched", "budget", "Work", EMAIL));
+        assertFalse(stale.read(file, new long[] {1, 2, 4}));
+        assertEquals(List.of("x"), stale.search(EMAIL, "budget", 50, null));
+
+        SearchIndex warm = new SearchIndex();
+        assertTrue(warm.read(file, stamp));
+        assertEquals(search("budget"), warm.search(EMAIL, "budget", 50, null));
+        assertEquals(List.of("a"), warm.search(EMAIL, "budgte review", 50, null));
+        assertEquals(List.of(), warm.search(EMAIL, "groceries", 50, null));
+    }
+
+    @Test
+    void rejectsATruncatedIndex() throws IOException {
+        put("a", "Budget review", "numbers", "Work");
+        File file = dir.resolve("00.idx").toFile();
+        index.write(file, new long[] {1});
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 5));
+        assertThrows(IOException.class, () -> new SearchIndex().read(file, new long[] {1}));
+    }
+
+    @Test
+    void rebuildsWhenTheStoreChangedAfterTheIndexWasSaved() throws IOException {
+        try (NoteStore store = NoteStoreTest.open(dir)) {
+            store.create(EMAIL, "Budget", "first quarter", "Work");
+        }
+        // Closing saved each loaded segment's index; keep a copy that predates the next write.
+        Path segments = dir.resolve("notes.segments");
+        Map<Path, byte[]> saved = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(segments, "*.idx")) {
+            for (Path file : files) {
+                saved.put(file, Files.readAllBytes(file));
+            }
+        }
+        assertFalse(saved.isEmpty());
+
+        try (NoteStore store = NoteStoreTest.open(dir)) {
+            assertEquals(1, store.search(EMAIL, "budget").size());
+            store.create(EMAIL, "Budget", "second quarter", "Work");
+        }
+        for (Map.Entry<Path, byte[]> file : saved.entrySet()) {
+            Files.write(file.getKey(), file.getValue());
+        }
+
+        try (NoteStore store = NoteStoreTest.open(dir)) {
+            assertEquals(2, store.search(EMAIL, "budget").size());
+            assertEquals(1, store.search(EMAIL, "second").size());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SessionManagerTest {
+    private static final String EMAIL = "a@example.com";
+    private static final long TTL = 60_000;
+
+    @TempDir
+    Path dir;
+
+    private NoteStore store;
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    @BeforeEach
+    void open() throws IOException {
+        store = NoteStoreTest.open(dir);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        store.close();
+    }
+
+    private SessionManager sessions(int max) {
+        return new SessionManager(store, TTL, max, now::get);
+    }
+
+    private static User user(String email) {
+        return new User(email, "unused");
+    }
+
+    /** Another account whose notes live in the same store segment as EMAIL. */
+    private static String neighbour() {
+        for (int i = 0; ; i++) {
+            String email = "b" + i + "@example.com";
+            if (Math.floorMod(email.hashCode(), NoteStore.SEGMENTS) == Math.floorMod(EMAIL.hashCode(), NoteStore.SEGMENTS)) {
+                return email;
+            }
+        }
+    }
+
+    @Test
+    void expiresSessionsIdleForLongerThanTheTtl() {
+        SessionManager sessions = sessions(100);
+        String token = sessions.open(user(EMAIL)).token;
+
+        now.addAndGet(TTL);
+        assertNotNull(sessions.get(token));
+        // Using a session restarts its clock.
+        now.addAndGet(TTL);
+        assertNotNull(sessions.get(token));
+        now.addAndGet(TTL + 1);
+        assertNull(sessions.get(token));
+        assertEquals(0, sessions.size());
+    }
+
+    @Test
+    void openingASessionDropsExpiredOnes() {
+        SessionManager sessions = sessions(100);
+        sessions.open(user(EMAIL));
+        sessions.open(user("b@example.com"));
+        now.addAndGet(TTL + 1);
+        String fresh = sessions.open(user("c@example.com")).token;
+        assertEquals(1, sessions.size());
+        assertNotNull(sessions.get(fresh));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedBeyondTheMaximum() {
+        SessionManager sessions = sessions(3);
+        String a = sessions.open(user("a@example.com")).token;
+        String b = sessions.open(user("b@example.com")).token;
+        String c = sessions.open(user("c@example.com")).token;
+        assertNotNull(sessions.get(a));
+
+        String d = sessions.open(user("d@example.com")).token;
+        assertEquals(3, sessions.size());
+        assertNull(sessions.get(b));
+        for (String token : List.of(a, c, d)) {
+            assertNotNull(sessions.get(token));
+        }
+    }
+
+    @Test
+    void closedSessionsAreGone() {
+        SessionManager sessions = sessions(100);
+        String token = sessions.open(user(EMAIL)).token;
+        sessions.close(token);
+        assertNull(sessions.get(token));
+        assertNull(sessions.get(null));
+        assertNull(sessions.get("unknown"));
+    }
+
+    @Test
+    void cachesListsAndSearchesUntilTheUsersNotesChange() throws IOException {
+        store.create(EMAIL, "Budget", "first quarter", "Work");
+        SessionManager.Session session = sessions(100).open(user(EMAIL));
+
+        List<Note> notes = session.notes();
+        List<Note> work = session.notes("Work");
+        List<Note> found = session.search("budget", null);
+        assertEquals(1, notes.size());
+        assertSame(notes, session.notes());
+        assertSame(work, session.notes("Work"));
+        assertSame(found, session.search("budget", null));
+
+        store.create(EMAIL, "Budget", "second quarter", "Work");
+        assertEquals(2, session.notes().size());
+        assertEquals(2, session.notes("Work").size());
+        assertEquals(2, session.search("budget", null).size());
+    }
+
+    @Test
+    void anotherUsersWriteKeepsTheCache() throws IOException {
+        String other = neighbour();
+        store.create(EMAIL, "Budget", "first quarter", "Work");
+        store.create(other, "Budget", "theirs", "Work");
+        SessionManager sessions = sessions(100);
+        SessionManager.Session mine = sessions.open(user(EMAIL));
+        SessionManager.Session theirs = sessions.open(user(other));
+
+        List<Note> notes = mine.notes();
+        List<Note> found = mine.search("budget", null);
+        List<Note> theirNotes = theirs.notes();
+        store.create(other, "Budget", "theirs again", "Work");
+
+        assertSame(notes, mine.notes());
+        assertSame(found, mine.search("budget", null));
+        assertNotSame(theirNotes, theirs.notes());
+        assertEquals(2, theirs.notes().size());
+    }
+}
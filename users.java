@@ -1,9 +1,118 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
+/**
+ * Directory of registered accounts, keyed by normalized email for constant-time lookup.
+ *
+ * The backing file is append-only: every add or update writes one "email,password" row and the
+ * last row for an email wins on load. The file is rewritten only when stale rows outnumber live ones.
+ * Passwords are stored as {@link PasswordHasher} hashes; legacy plaintext rows are upgraded on login.
+ */
 public class users {
+    private final File file;
+    private final Map<String, User> byEmail = new ConcurrentHashMap<>();
+    private final PasswordHasher hasher;
 
-    public static void add(User user) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'add'");
+    public users(String path) {
+        this(path, new PasswordHasher());
     }
 
+    users(String path, PasswordHasher hasher) {
+        this.file = new File(path);
+        this.hasher = hasher;
+    }
+
+    PasswordHasher hasher() {
+        return hasher;
+    }
+
+    static String normalize(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Registers a new account in memory; returns false if the email is already taken.
+     * The user's password must already be hashed.
+     */
+    public boolean add(User user) {
+        return byEmail.putIfAbsent(normalize(user.email), user) == null;
+    }
+
+    public User get(String email) {
+        return byEmail.get(normalize(email));
+    }
+
+    public boolean exists(String email) {
+        return byEmail.containsKey(normalize(email));
+    }
+
+    /**
+     * Verifies credentials, which is CPU-heavy, so call it through {@link PasswordHasher#submit}.
+     * If the stored password was plaintext or hashed with a lower cost, the account is re-hashed in
+     * memory and passed to onRehash so the caller can persist it.
+     */
+    public User authenticate(String email, String password, Consumer<User> onRehash) {
+        User user = get(email);
+        if (!hasher.verify(normalize(email), password, user == null ? null : user.password)) {
+            return null;
+        }
+        if (hasher.needsRehash(user.password)) {
+            User upgraded = new User(user.email, hasher.hash(password));
+            if (byEmail.replace(normalize(user.email), user, upgraded)) {
+                hasher.forget(normalize(user.email));
+                onRehash.accept(upgraded);
+            }
+            return upgraded;
+        }
+        return user;
+    }
+
+    public int size() {
+        return byEmail.size();
+    }
+
+    /** Reads the backing file, compacting it if it has accumulated mostly stale rows. */
+    public void load() throws IOException {
+        byEmail.clear();
+        if (!file.exists()) {
+            return;
+        }
+        int rows = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length == 2) {
+                    byEmail.put(normalize(parts[0]), new User(parts[0], parts[1]));
+                    rows++;
+                }
+            }
+        }
+        if (rows > 2 * byEmail.size() + 16) {
+            rewrite();
+        }
+    }
+
+    /** Appends the current row for an account. */
+    public synchronized void append(User user) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file, true))) {
+            writer.write(user.email + "," + user.password);
+            writer.newLine();
+        }
+    }
+
+    private void rewrite() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmp))) {
+            for (User user : byEmail.values()) {
+                writer.write(user.email + "," + user.password);
+                writer.newLine();
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
 }